@@ -1,7 +1,9 @@
 package com.xzdp.config;
 
 import com.xzdp.utils.Interceptor.LoginInterceptor;
+import com.xzdp.utils.Interceptor.RateLimitInterceptor;
 import com.xzdp.utils.Interceptor.RefreshTokenInterceptor;
+import com.xzdp.utils.RateLimit.RateLimitRule;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -20,6 +22,19 @@ public class MvcConfig implements WebMvcConfigurer{
         return new RefreshTokenInterceptor();
     }
 
+    //限流拦截器，配置每个接口的规则
+    @Bean
+    public RateLimitInterceptor rateLimitInterceptor() {
+        return new RateLimitInterceptor(
+                // 秒杀：结点每秒2000个请求；每个用户每秒5个、突发10个；所有结点上每个用户10秒内最多20个
+                RateLimitRule.of("/voucher-order/seckill/*", RateLimitRule.LimitKey.USER)
+                        .route(2000, 4000).local(5, 10).cluster(20, 10000),
+                // 发送验证码：每个IP每秒1个、突发3个；所有结点上每个IP一分钟内最多10个
+                RateLimitRule.of("/user/code", RateLimitRule.LimitKey.IP)
+                        .local(1, 3).cluster(10, 60000)
+        );
+    }
+
     // 配置拦截器
     // 新声明 先执行 （默认order都是0）
     //也可以手动设置  order,越小，优先级越高
@@ -43,5 +58,10 @@ public class MvcConfig implements WebMvcConfigurer{
                        "/blog/hot",
                        "/shop-type/**"
                ).order(1);
+
+        //添加限流拦截器，只拦截配置了规则的接口；在登录拦截器之后，可以按用户限流
+        registry.addInterceptor(rateLimitInterceptor())
+                .addPathPatterns("/voucher-order/seckill/*", "/user/code")
+                .order(2);
     }
 }
@@ -5,6 +5,8 @@ import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 /**
  * 使用redisson 操作Redis的配置
@@ -35,6 +37,19 @@ public class RedisConfig {
 
     }
 
+    /**
+     * Redis 发布订阅的监听容器
+     * 各个组件在初始化时向容器中注册自己的频道，用于多个结点之间的消息广播
+     * @param factory Redis连接工厂
+     * @return 监听容器
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory factory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        return container;
+    }
+
     /**
      * 配置单个Redis结点的Redisson客户端
      * @return Redisson客户端
@@ -0,0 +1,105 @@
+package com.xzdp.controller;
+
+
+import com.xzdp.dto.Result;
+import com.xzdp.utils.Redis.Cache.TokenSessionCache;
+import com.xzdp.utils.Redis.CacheClient;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存监控，查看各级缓存的运行指标
+ * </p>
+ *
+ * @author diane
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheMonitorController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    @Resource
+    private TokenSessionCache tokenSessionCache;
+
+    /**
+     * 本地一级缓存的命中统计，按照键的前缀分组
+     * @return 前缀 -> {hit, miss, hitRate}
+     */
+    @GetMapping("/local")
+    public Result localStats() {
+        return Result.ok(cacheClient.localStats());
+    }
+
+    /**
+     * 布隆过滤器的指标，包括位数组大小、填充率和估算的误判率
+     * @return 过滤器名称 -> 指标
+     */
+    @GetMapping("/bloom")
+    public Result bloomStats() {
+        return Result.ok(cacheClient.bloomStats());
+    }
+
+    /**
+     * 缓存重建线程池的指标，包括队列深度、去重/丢弃次数、重建耗时和失败次数
+     * @return 指标
+     */
+    @GetMapping("/rebuild")
+    public Result rebuildStats() {
+        return Result.ok(cacheClient.rebuildStats());
+    }
+
+    /**
+     * 提前刷新的指标，包括跟踪的key个数、已刷新和已放弃的次数
+     * @return 指标
+     */
+    @GetMapping("/refresh-ahead")
+    public Result refreshAheadStats() {
+        return Result.ok(cacheClient.refreshAheadStats());
+    }
+
+    /**
+     * 热点key探测，包括上一个统计窗口的 top-K 和当前已晋升为本地副本的key
+     * @return 指标
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeyStats() {
+        return Result.ok(cacheClient.hotKeyStats());
+    }
+
+    /**
+     * 登录会话的本地缓存指标，包括本地命中、从Redis读取和续期的次数
+     * @return 指标
+     */
+    @GetMapping("/session")
+    public Result sessionStats() {
+        return Result.ok(tokenSessionCache.stats());
+    }
+
+    /**
+     * 即将过期的key的直方图，按分钟统计，用于发现过期高峰
+     * @return 指标，包括最高的一分钟和 peakRatio
+     */
+    @GetMapping("/expiry")
+    public Result expiryStats() {
+        return Result.ok(cacheClient.expiryStats());
+    }
+
+    /**
+     * lua脚本的执行指标，包括调用次数、平均/最大耗时和 NOSCRIPT 回退次数
+     * @return 脚本 -> 指标
+     */
+    @GetMapping("/scripts")
+    public Result scriptStats() {
+        return Result.ok(redisScripts.stats());
+    }
+}
@@ -0,0 +1,34 @@
+package com.xzdp.controller;
+
+
+import com.xzdp.dto.Result;
+import com.xzdp.utils.Interceptor.RateLimitInterceptor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 限流监控，查看每个接口的放行和拒绝次数
+ * </p>
+ *
+ * @author diane
+ */
+@RestController
+@RequestMapping("/rate-limit")
+public class RateLimitController {
+
+    @Resource
+    private RateLimitInterceptor rateLimitInterceptor;
+
+    /**
+     * 每个接口的放行次数，以及结点级、本地、集群三级限流分别拒绝的次数
+     * @return 接口 -> 指标
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        return Result.ok(rateLimitInterceptor.stats());
+    }
+}
@@ -9,6 +9,8 @@ import com.xzdp.entity.User;
 import com.xzdp.entity.UserInfo;
 import com.xzdp.service.IUserInfoService;
 import com.xzdp.service.IUserService;
+import com.xzdp.utils.Redis.Cache.BloomFilterManager;
+import com.xzdp.utils.Redis.Cache.XzCached;
 import com.xzdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -18,6 +20,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import static com.xzdp.utils.Constants.RedisConstants.*;
+
 /**
  * <p>
  * 前端控制器
@@ -37,6 +41,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private BloomFilterManager bloomFilters;
+
 
     /**
      * 发送手机验证码
@@ -92,6 +99,7 @@ public class UserController {
      * @return
      */
     @GetMapping("/info/{id}")
+    @XzCached(prefix = CACHE_USER_INFO_KEY, key = "#userId", ttl = CACHE_USER_INFO_TTL, dataType = UserInfo.class)
     public Result info(@PathVariable("id") Long userId){
         //查询详情
         UserInfo info = userInfoService.getById(userId);
@@ -115,8 +123,12 @@ public class UserController {
      */
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId) {
+        // 布隆过滤器判断用户一定不存在，不再查询数据库
+        if (!bloomFilters.mightContain(BLOOM_USER, userId)) {
+            return Result.fail("当前用户信息不存在！");
+        }
         User user = userService.getById(userId);
-        if (userId == null) {
+        if (user == null) {
             return Result.fail("当前用户信息不存在！");
         }
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
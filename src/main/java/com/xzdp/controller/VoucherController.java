@@ -4,10 +4,13 @@ package com.xzdp.controller;
 import com.xzdp.dto.Result;
 import com.xzdp.entity.Voucher;
 import com.xzdp.service.IVoucherService;
+import com.xzdp.utils.Redis.Cache.XzCacheEvict;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import static com.xzdp.utils.Constants.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
+
 /**
  * <p>
  *  前端控制器
@@ -29,6 +32,7 @@ public class VoucherController {
      * @return 优惠券id
      */
     @PostMapping
+    @XzCacheEvict(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
     public Result addVoucher(@RequestBody Voucher voucher) {
         voucherService.save(voucher);
         return Result.ok(voucher.getId());
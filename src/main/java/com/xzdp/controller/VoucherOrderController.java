@@ -3,6 +3,11 @@ package com.xzdp.controller;
 
 import com.xzdp.dto.Result;
 import com.xzdp.service.IVoucherOrderService;
+import com.xzdp.utils.Redis.Seckill.SeckillVoucherCache;
+import com.xzdp.utils.Redis.Seckill.SoldOutRegistry;
+import com.xzdp.utils.Redis.Seckill.StockLease;
+import com.xzdp.utils.Redis.Seckill.StockReconciler;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -10,6 +15,8 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * <p>
@@ -26,8 +33,42 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private StockLease stockLease;
+
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    @Resource
+    private StockReconciler stockReconciler;
+
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId, HttpServletRequest request) {
         return voucherOrderService.seckillVoucher(voucherId, request);
     }
+
+    /**
+     * 秒杀入口的本地指标，包括售罄标记、本地拒绝的请求数和预领的库存
+     * @return 指标
+     */
+    @GetMapping("seckill/stats")
+    public Result seckillStats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("soldOut", soldOutRegistry.stats());
+        res.put("lease", stockLease.stats());
+        res.put("voucher", seckillVoucherCache.stats());
+        return Result.ok(res);
+    }
+
+    /**
+     * Redis与数据库的库存对账结果：积压的订单、库存偏差和修复次数
+     * @return 对账结果
+     */
+    @GetMapping("seckill/reconcile")
+    public Result seckillReconcile() {
+        return Result.ok(stockReconciler.stats());
+    }
 }
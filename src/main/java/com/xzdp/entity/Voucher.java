@@ -99,6 +99,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 秒杀券一人一单的去重方式：set(默认)、bitmap
+     */
+    @TableField(exist = false)
+    private String buyerDedup;
+
     /**
      * 创建时间
      */
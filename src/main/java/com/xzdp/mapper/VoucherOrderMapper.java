@@ -2,6 +2,9 @@ package com.xzdp.mapper;
 
 import com.xzdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 多行 INSERT IGNORE，一条sql保存一批订单
+     * 订单id重复(消息重复投递)或者 (user_id, voucher_id) 重复(一人多单)的行被忽略，不报错
+     * @param orders 订单，不能为空
+     * @return 实际插入的行数，不包括被忽略的行
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
@@ -21,6 +21,14 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryById(Long id);
 
+    /**
+     * 新增商户信息
+     * 保存到数据库，并写入布隆过滤器
+     * @param shop 商户信息
+     * @return 商户id
+     */
+    Result saveShop(Shop shop);
+
     /**
      * 更新商户信息
      * key 要保证 缓存和数据库的一致性
@@ -5,6 +5,7 @@ import com.xzdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.List;
 
 /**
  * <p>
@@ -40,6 +41,13 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      */
     void createVoucherOrder(VoucherOrder voucherOrder);
 
+    /**
+     * 批量创建订单 VoucherOrderServiceImpl3
+     * 一批订单在同一个事务中保存
+     * @param voucherOrders 订单信息
+     */
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
+
 
 
 }
@@ -15,19 +15,29 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.xzdp.service.IFollowService;
 import com.xzdp.service.IUserService;
 import com.xzdp.utils.Constants.SystemConstants;
+import com.xzdp.utils.Redis.Cache.BloomFilterManager;
+import com.xzdp.utils.Redis.Cache.LocalCache;
+import com.xzdp.utils.Redis.CacheClient;
 import com.xzdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.xzdp.utils.Constants.RedisConstants.BLOG_LIKED_KEY;
+import static com.xzdp.utils.Constants.RedisConstants.BLOOM_BLOG;
+import static com.xzdp.utils.Constants.RedisConstants.CACHE_USER_KEY;
+import static com.xzdp.utils.Constants.RedisConstants.CACHE_USER_TTL;
 import static com.xzdp.utils.Constants.RedisConstants.FEED_KEY;
 import static com.xzdp.utils.Constants.SystemConstants.DEFAULT_PAGE_SIZE;
 
@@ -52,6 +62,15 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private BloomFilterManager bloomFilters;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private LocalCache localCache;
+
     /**
      * 查询所有的博客，并按照热点降序排序
      *
@@ -66,12 +85,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // key lambda表达式应用
         // 封装博客用户信息 + 查询博客是否被当前用户点赞
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 整页批量查询，不再每篇博客单独查询一次
+        fillBlogs(records);
 
         return Result.ok(records);
     }
@@ -88,6 +104,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
+        //0.布隆过滤器判断博客一定不存在，不再查询数据库
+        if (!bloomFilters.mightContain(BLOOM_BLOG, id)) {
+            return Result.fail("博客不存在！");
+        }
         //1.根据id查询博客
         Blog blog = getById(id);
         if (blog == null) {
@@ -157,6 +177,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 从SortedSet集合中移除用户id
             if (isSuccess) {
                 stringRedisTemplate.opsForZSet().remove(key, userId);
+                //点赞排行变化，删除热点副本
+                localCache.invalidate(key);
             }
             log.info("取消点赞！");
             return Result.ok();
@@ -168,6 +190,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (isSuccess) {
             //2.2 向SortedSet集合中添加用户id,使用时间戳作为 分数
             stringRedisTemplate.opsForZSet().add(key, userId, System.currentTimeMillis());
+            localCache.invalidate(key);
         }
         log.info("点赞成功！");
 
@@ -178,6 +201,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     /**
      * 查询当前博客点赞前5名
      * key 使用stream流的方式来处理
+     *  热点博客的结果在本结点保存一份副本，点赞或取消点赞时删除
      *
      * @param id 博客id
      * @return
@@ -185,6 +209,11 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Override
     public Result queryBlogLikes(Long id) {
         String key = BLOG_LIKED_KEY + id;
+        //0. 热点博客，直接返回本地副本
+        Object local = localCache.getHot(BLOG_LIKED_KEY, key);
+        if (local != null) {
+            return Result.ok(local);
+        }
         //1.查询点赞前5名用户
         Set<String> userIds = stringRedisTemplate.opsForZSet().range(key, 0, 4);
         if (userIds == null || userIds.isEmpty()) {
@@ -214,6 +243,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
                 // 收集处理结果，变成list集合
                 .collect(Collectors.toList());
+        localCache.putHot(key, userDTOS);
         return Result.ok(userDTOS);
     }
 
@@ -240,6 +270,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("进程异常！");
         }
+        //2.1 写入布隆过滤器
+        bloomFilters.add(BLOOM_BLOG, blog.getId());
         //3. 获取关注当前博主的用户Id
         // select * from tb_follow where follow_user_id = blogId
         //3.1 从数据库中查询关注当前博主的所有 *
@@ -321,12 +353,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
 
 //        5. 丰富博客信息，添加博客用户，及是否点赞
-        for (Blog blog : blogs) {
-            //5.1 查询博客有关用户
-            queryBlogUser(blog);
-            //5.2 查询是否点赞，并设置isLike字段
-            isBlogLiked(blog);
-        }
+        fillBlogs(blogs);
 
         //6. 封装返回对象 ScrollResult
         ScrollResult scrollResult = new ScrollResult();
@@ -338,6 +365,62 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
 
+    /**
+     *  批量丰富博客信息
+     *
+     *  1. 一次批量查询所有博主：先查缓存(MGET)，未命中的用户一次 IN 查询数据库
+     *  2. 使用管道一次性查询当前用户是否给每篇博客点赞(ZSCORE)
+     *
+     * @param blogs 博客列表
+     */
+    private void fillBlogs(List<Blog> blogs) {
+        if (blogs == null || blogs.isEmpty()) {
+            return;
+        }
+        //1. 批量查询博主信息
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        Map<Long, UserDTO> users = cacheClient.multiGet(CACHE_USER_KEY, userIds, UserDTO.class,
+                this::queryUserDTOs, CACHE_USER_TTL, TimeUnit.MINUTES);
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+
+        //2. 用户未登录，无需查询是否点赞
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return;
+        }
+        //2.1 使用管道批量查询 zscore blog:liked:id userId
+        byte[] userId = stringRedisTemplate.getStringSerializer().serialize(user.getId().toString());
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Blog blog : blogs) {
+                byte[] key = stringRedisTemplate.getStringSerializer().serialize(BLOG_LIKED_KEY + blog.getId());
+                connection.zSetCommands().zScore(key, userId);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
+
+    /**
+     * 根据用户id批量查询用户信息，并转换成UserDTO
+     * WHERE id IN (?,?,?)
+     * @param ids 用户id
+     * @return 用户id -> UserDTO
+     */
+    private Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        return userService.listByIds(ids).stream()
+                .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class)));
+    }
+
+
     /**
      * 根据博客中的用户id，查询发博用户信息,并进行封装
      *
@@ -11,6 +11,7 @@ import com.xzdp.entity.Shop;
 import com.xzdp.mapper.ShopMapper;
 import com.xzdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.xzdp.utils.Redis.Cache.BloomFilterManager;
 import com.xzdp.utils.Redis.CacheClient;
 import com.xzdp.dto.RedisData;
 import lombok.extern.slf4j.Slf4j;
@@ -27,8 +28,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.xzdp.utils.Constants.RedisConstants.*;
@@ -52,6 +51,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient client;
 
+    @Resource
+    private BloomFilterManager bloomFilters;
+
     /**
      *  根据id查询 商户信息
      *   Redis 数据类型选择：Value使用String数据类型
@@ -90,6 +92,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //2.1 缓存穿透
 //        Shop shop = client.
 //                queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //2.2 缓存穿透 + 单飞 + 互斥锁解决缓存击穿
+//        Shop shop = client.
+//                queryWithMutex(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES, CACHE_LOAD_WAIT_MILLIS);
         //2.3 逻辑过期解决缓存穿透
         Shop shop = client.
                 queryWithLogicalExpire(CACHE_SHOP_LOGIC_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
@@ -103,6 +108,24 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 
 
+    /**
+     *  新增商户信息
+     *  保存到数据库后，将id写入布隆过滤器，否则新店铺会被当成不存在的id拦截
+     *
+     * @param shop 商户信息
+     * @return 商户id
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 写入布隆过滤器
+        bloomFilters.add(BLOOM_SHOP, shop.getId());
+        return Result.ok(shop.getId());
+    }
+
+
+
     /**
      *  避免缓存穿透
      *
@@ -178,71 +201,17 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @return 返回封装结果
      */
     private Result queryWithMutex(Long id) {
-        String shopKey = CACHE_SHOP_KEY + id;
-        //1. 从redis中查询店铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(shopKey);
-        //当shopKey不存在时，shopJson为null-- 缓存未命中
-        //当id为虚假id，redis中存入空数据时，shopJson为"" (空字符串) -- 缓存的虚假命中
-//        System.out.println(shopJson);
-
-        //2. 缓存命中，分两种情况处理
-        //2.1 缓存结果不为空，直接返回
-        //如果shopJson是空字符串，isBlank返回的是false
-        if (StrUtil.isNotBlank(shopJson)) {
-            log.info("缓存命中！");
-            Shop shop = JSON.parseObject(shopJson, Shop.class);
-            return Result.ok(shop);
-        }
-        //2.2 缓存结果为空
-        if ("".equals(shopJson)) {
-            log.info("虚假id");
-            return Result.fail("你这id是假的吧？？");
-        }
-
-        //3. 缓存未命中,实现缓存重建
-        //3.1 获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        Shop shop = null;
-        try {
-            boolean isLock = tryGetLock(lockKey, LOCK_SHOP_TTL);
-            if (!isLock) {
-                //3.2 获取锁失败，休眠等待一段时间，然后再从Redis中查询数据
-                Thread.sleep(50);
-                //使用递归的方式 来重试获取数据
-                return queryWithMutex(id);
-            }
-            //3.3 获取锁成功，查询数据库
-            log.info("获取锁成功");
-            shop = getById(id);
-            // 模拟重建的延时
-            Thread.sleep(200);
-
-            //4. 数据库查询
-            //4.1 查询失败，向redis中存入null值，设置较短的有效期，避免缓存穿透
-            if (shop == null) {
-                stringRedisTemplate.opsForValue().set(shopKey, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return Result.fail("商户信息不存在！");
-            }
-            //4.2 查询成功，写入redis,并设置超时时间，30分钟
-            shopJson = JSON.toJSONString(shop);
-            stringRedisTemplate.opsForValue().set(shopKey, shopJson, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-            log.info("将数据库数据写入缓存");
-        } catch (InterruptedException e) {
-            throw new RuntimeException();
-        } finally {
-            //5. 释放互斥锁
-            unLock(lockKey);
+        // 本结点内的并发请求由单飞合并，只有一个线程竞争互斥锁查询数据库，其余线程等待同一个结果
+        // 获取锁失败时循环等待，不再递归重试，超过等待时间抛出异常
+        Shop shop = client.queryWithMutex(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById,
+                CACHE_SHOP_TTL, TimeUnit.MINUTES, CACHE_LOAD_WAIT_MILLIS);
+        if (shop == null) {
+            return Result.fail("商户信息不存在！");
         }
-
-
-        //6. 将信息返回给前端
         return Result.ok(shop);
     }
 
 
-    //创建一个线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     /**
      *  不考虑缓存穿透问题
      *  逻辑过期解决缓存击穿
@@ -251,13 +220,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      *  2. 缓存未命中，返回错误
      *  3. 缓存命中，获取判断缓存是否过期
      *     3.1 缓存未过期，返回店铺信息
-     *     3.2 缓存过期，尝试获取互斥锁
-     *  4. 互斥锁获取
-     *     4.1 成功，开启独立线程--5
-     *     4.2 成功+失败，返回-旧的-信息
-     *  5. 独立线程
-     *     5.1 查询数据库
-     *     5.2 数据写入Redis
+     *     3.2 缓存过期，提交重建任务到共享的重建线程池
+     *  4. 无论是否提交成功，返回-旧的-信息
+     *  5. 重建线程(同一个key只提交一次)
+     *     5.1 获取互斥锁
+     *     5.2 查询数据库，数据写入Redis
      *     5.3 释放互斥锁
      *
      *
@@ -289,34 +256,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             log.info("缓存没有过期！");
             return Result.ok(data);
         }
-        //3.2 缓存过期，尝试获取互斥锁
+        //3.2 缓存过期，提交重建任务
         log.info("缓存过期！");
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryGetLock(lockKey, LOCK_SHOP_TTL);
-
-
-        //4. 互斥锁获取
-        //4.1 key 成功，开启独立线程
-        if (isLock) {
-            log.info("获取锁成功！");
-            //5. 独立线程
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                log.info("开启独立线程");
-                //重建缓存,是否锁
-                try {
-                    //5.1 查询数据库
-                    //5.2 数据写入Redis
-                    saveShop2Redis(id, 30L);
-                    log.info("更新缓存信息成功！");
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    //5.3 释放互斥锁
-                    unLock(lockKey);
-                }
-            });
-        }
-        //4.2 成功+失败，返回-旧的-信息
+        client.rebuildLogic(shopKey, LOCK_SHOP_KEY + id, id, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        //4. 返回-旧的-信息
         return Result.ok(data);
 
     }
@@ -343,9 +287,10 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //1. 更新数据库
         updateById(shop);
 
-        //2. 删除缓存
-        String key = CACHE_SHOP_KEY + shop.getId();
-        stringRedisTemplate.delete(key);
+        //2. 删除缓存，同时通知所有结点删除本地缓存
+        client.delete(CACHE_SHOP_KEY + id);
+        //2.1 逻辑过期的缓存不能删除(删除后查询不到店铺)，用最新的数据覆盖，覆盖时也会通知删除本地缓存
+        client.setLogic(CACHE_SHOP_LOGIC_KEY + id, getById(id), CACHE_SHOP_TTL, TimeUnit.MINUTES);
         log.info("商户信息缓存已删除");
 
         return Result.ok();
@@ -468,15 +413,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //模拟缓存延时
         Thread.sleep(200);
 
-        //封装缓存值
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        // 设置逻辑过期时间，当前时间-分钟
-        redisData.setExpireTime(LocalDateTime.now().plusMinutes(expireMinutes)); //30M
-//        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireMinutes)); //30s
-
-        //存入缓存
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_LOGIC_KEY + shop.getId(), JSONUtil.toJsonStr(redisData));
+        //封装缓存值，设置逻辑过期时间，并存入缓存
+        //使用工具类写入，写入时会通知所有结点删除本地缓存
+        client.setLogic(CACHE_SHOP_LOGIC_KEY + shop.getId(), shop, expireMinutes, TimeUnit.MINUTES);
     }
 
 }
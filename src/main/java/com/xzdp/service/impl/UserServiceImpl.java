@@ -12,6 +12,8 @@ import com.xzdp.dto.UserDTO;
 import com.xzdp.entity.User;
 import com.xzdp.mapper.UserMapper;
 import com.xzdp.service.IUserService;
+import com.xzdp.utils.Redis.Cache.BloomFilterManager;
+import com.xzdp.utils.Redis.Cache.TokenSessionCache;
 import com.xzdp.utils.RegexUtils;
 import com.xzdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -52,6 +54,12 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private BloomFilterManager bloomFilters;
+
+    @Autowired
+    private TokenSessionCache tokenSessionCache;
+
 
     /**
      *  给用户发送验证码
@@ -230,6 +238,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         //从redis中删除对应的键
         String tokenKey = LOGIN_USER_KEY + token;
         stringRedisTemplate.delete(tokenKey);
+        //通知所有结点删除本地缓存的会话
+        tokenSessionCache.invalidate(token);
         log.info("删除redis中键！");
         response.setStatus(200);
         return Result.ok();
@@ -322,6 +332,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setUpdateTime(LocalDateTime.now());
         // 直接使用save方法 保存对象
         save(user);
+        // 写入布隆过滤器
+        bloomFilters.add(BLOOM_USER, user.getId());
         return user;
     }
 }
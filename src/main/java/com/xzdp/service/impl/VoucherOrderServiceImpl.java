@@ -1,14 +1,18 @@
 package com.xzdp.service.impl;
 
 import com.xzdp.dto.Result;
-import com.xzdp.entity.SeckillVoucher;
 import com.xzdp.entity.VoucherOrder;
 import com.xzdp.mapper.VoucherOrderMapper;
 import com.xzdp.service.ISeckillVoucherService;
 import com.xzdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.xzdp.utils.Redis.Lock.RedisLocks;
+import com.xzdp.utils.Redis.Lock.ReentrantRedisLock;
 import com.xzdp.utils.Redis.Lock.SimpleRedisLock;
 import com.xzdp.utils.Redis.RedisIdWorker;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import com.xzdp.utils.Redis.Seckill.SeckillVoucherCache;
+import com.xzdp.utils.Redis.Seckill.SeckillVoucherMeta;
 import com.xzdp.utils.UserHolder;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
@@ -18,7 +22,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
-import java.time.LocalDateTime;
+import java.util.List;
 
 import static com.xzdp.utils.Constants.RedisConstants.*;
 
@@ -41,15 +45,24 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private RedisScripts redisScripts;
+
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private RedisLocks redisLocks;
+
     /**
      * 完成秒杀优惠券抢购
      *
@@ -72,25 +85,14 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId, HttpServletRequest request) {
-        //1. 查询秒杀优惠券信息
-        SeckillVoucher seckillVoucher = seckillVoucherService.lambdaQuery().eq(SeckillVoucher::getVoucherId, voucherId).one();
-
-        LocalDateTime now = LocalDateTime.now();
+        //1. 查询秒杀优惠券信息，使用本地缓存，不再每次查询数据库
         //2. 判断秒杀是否开始
-        LocalDateTime beginTime = seckillVoucher.getBeginTime();
-        if (beginTime.isAfter(now)) {
-            return Result.fail("抢购还未开始，请耐心等待！");
-        }
         //3. 判断秒杀是否结束
-        LocalDateTime endTime = seckillVoucher.getEndTime();
-        if (endTime.isBefore(now)) {
-            return Result.fail("抢购已经结束！");
-        }
-        //4. 判断库存是否充足
-        int stock = seckillVoucher.getStock();
-        if (stock <= 0) {
-            return Result.fail("很遗憾，优惠券已经被抢完！");
+        int check = seckillVoucherCache.check(voucherId, System.currentTimeMillis());
+        if (check != SeckillVoucherMeta.OK) {
+            return Result.fail(SeckillVoucherMeta.failMessage(check));
         }
+        //4. 库存是否充足，由扣减库存时的乐观锁判断
 
         Long userId = UserHolder.getUser().getId();
 
@@ -100,7 +102,36 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //l2. 利用redis的 setnx实现简单分布式锁
 //        return simpleRedisLock(voucherId, userId);
         //l3. 使用Redisson 实现加锁操作
-        return redissonLock(voucherId, userId);
+//        return redissonLock(voucherId, userId);
+        //l4. 使用自己实现的可重入锁，看门狗续期，不依赖Redisson
+        return reentrantLock(voucherId, userId);
+    }
+
+
+    /**
+     * l4. 使用可重入锁 实现加锁操作
+     *  与Redisson的用法相同：失败不等待；不指定过期时间，由看门狗续期，直到锁释放
+     *
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return 标准结果
+     */
+    private Result reentrantLock(Long voucherId, Long userId) {
+        // 将锁的范围，减少到 每个用户上
+        ReentrantRedisLock lock = redisLocks.getLock(LOCK_VOUCHER_ORDER + userId);
+        boolean isLock = lock.tryLock();
+        if (!isLock) {
+            // 获取锁失败，直接返回失败
+            return Result.fail("不允许重复下单！");
+        }
+        try {
+            //执行事务
+            IVoucherOrderService proxy = (IVoucherOrderService)AopContext.currentProxy();
+            return proxy.createVoucherOrder(voucherId, userId);
+        } finally {
+            //释放锁
+            lock.unlock();
+        }
     }
 
 
@@ -146,7 +177,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private Result simpleRedisLock(Long voucherId, Long userId) {
         //创建锁对象，使用构造函数注入参数
         // 将锁的范围，减少到 每个用户上
-        SimpleRedisLock lock = new SimpleRedisLock(LOCK_VOUCHER_ORDER + userId, stringRedisTemplate);
+        SimpleRedisLock lock = new SimpleRedisLock(LOCK_VOUCHER_ORDER + userId, stringRedisTemplate, redisScripts);
         boolean isLock = lock.tryLock(1200);
         if (!isLock) {
             // 获取锁失败，直接返回失败
@@ -302,4 +333,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     public void createVoucherOrder(VoucherOrder voucherOrder) {
         return;
     }
+
+    /**
+     * 实现接口的方法
+     * @param voucherOrders 订单信息
+     */
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        return;
+    }
 }
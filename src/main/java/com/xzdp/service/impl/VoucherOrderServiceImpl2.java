@@ -1,31 +1,43 @@
 package com.xzdp.service.impl;
 
+import cn.hutool.core.thread.NamedThreadFactory;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.xzdp.dto.Result;
 import com.xzdp.entity.VoucherOrder;
 import com.xzdp.mapper.VoucherOrderMapper;
 import com.xzdp.service.ISeckillVoucherService;
 import com.xzdp.service.IVoucherOrderService;
+import com.xzdp.utils.Queue.RingBuffer;
+import com.xzdp.utils.Queue.WaitStrategy;
 import com.xzdp.utils.Redis.RedisIdWorker;
+import com.xzdp.utils.Redis.Script.LuaScript;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import com.xzdp.utils.Redis.Seckill.BuyerDedup;
+import com.xzdp.utils.Redis.Seckill.SeckillVoucherCache;
+import com.xzdp.utils.Redis.Seckill.SeckillVoucherMeta;
+import com.xzdp.utils.Redis.Seckill.SoldOutRegistry;
+import com.xzdp.utils.Redis.Seckill.StockLease;
 import com.xzdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.xzdp.utils.Constants.RedisConstants.*;
 
@@ -37,7 +49,7 @@ import static com.xzdp.utils.Constants.RedisConstants.*;
  *   将抢单和数据库操作分开，异步进行
  *
  *   1.使用lua脚本完成库存判断和一人一单判断
- *   2.使用java的阻塞队列，进行异步的订单创建和库存扣减工作
+ *   2.使用无锁的环形队列，进行异步的订单创建和库存扣减工作，一批订单一次多行insert
  * </p>
  *
  * @author diane
@@ -57,60 +69,94 @@ public class VoucherOrderServiceImpl2 extends ServiceImpl<VoucherOrderMapper, Vo
     private RedisIdWorker redisIdWorker;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SoldOutRegistry soldOut;
+
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    @Resource
+    private StockLease stockLease;
 
     /**
-     * 获取该类的动态代理对象，用成员变量的方式，让异步线程获取
+     * 该类的动态代理对象，异步线程通过它调用事务方法
+     * 延迟注入自己，消费者线程启动时就可以使用，不用等第一个秒杀请求
      */
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
+    /**
+     * lua脚本统一由注册中心预加载，通过 EVALSHA 执行
+     */
+    @Resource
+    private RedisScripts redisScripts;
 
+    /**
+     * 环形队列的容量，槽位在启动时全部分配好
+     */
+    private static final int ORDER_RING_SIZE = 1 << 16;
 
     /**
-     * 使用静态代码块的方式引入lua脚本
-     * 返回值类型 数字必须为Long类型， Integer类型会报错
+     * 消费者每批最多读取的订单数，一批订单一次多行insert
      */
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        //spring 提供的ClassPathResource，默认文件夹是 resources文件
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill2.lua"));
-        // key 设置返回值类型 数字必须为Long类型
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    private static final int ORDER_BATCH_SIZE = 200;
 
     /**
-     * 新建阻塞队列
-     * 大小为 1024*1024  太大会占内存
+     * 队列满时，请求线程最多等待的时间，毫秒
      */
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024*1024);
+    private static final long ORDER_RING_WAIT_MILLIS = 10L;
+
+    /**
+     * 订单的环形队列
+     *  原来的 ArrayBlockingQueue 入队要竞争锁，队列满时 add 抛异常
+     *  槽位中的订单对象是复用的；只有Redis中下单成功后才占用槽位，占用后立即写入并发布
+     */
+    private final RingBuffer<VoucherOrder> orderRing =
+            new RingBuffer<>(ORDER_RING_SIZE, VoucherOrder::new, WaitStrategy.SLEEPING);
 
     //异步处理线程池-创建一个单线程
-    private final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private final ExecutorService SECKILL_ORDER_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-order-", true));
 
     /**
      * 将任务提交给线程处理
      * 该注解，是当类初始化完毕后，就自动执行，所以任务就自动提交了
-     * 我们的线程会一直盯着阻塞队列，来异步的处理订单
+     * 我们的线程会一直盯着环形队列，来异步的处理订单
      */
     @PostConstruct
     private void init() {
         //提交任务给线程
         SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
     }
+
+    @PreDestroy
+    private void destroy() {
+        SECKILL_ORDER_EXECUTOR.shutdownNow();
+    }
+
     // 创建线程任务
     private class VoucherOrderHandler implements Runnable {
         @Override
         public void run() {
-            while (true) {
+            List<VoucherOrder> batch = new ArrayList<>(ORDER_BATCH_SIZE);
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    //1. 获取订单信息
-                    // take 取任务是阻塞的取，当队列中没有信息时，会等在这，直到队列中有信息，就会拿到
-                    VoucherOrder voucherOrder = orderTasks.take();
-                    //2. 创建订单
-                    handleVoucherOrder(voucherOrder);
+                    //1. 获取一批订单，槽位会被重用，复制出来
+                    orderRing.drain(slot -> {
+                        if (slot.getVoucherId() != null) {
+                            batch.add(new VoucherOrder().setId(slot.getId())
+                                    .setUserId(slot.getUserId()).setVoucherId(slot.getVoucherId()));
+                        }
+                    }, ORDER_BATCH_SIZE, 1, TimeUnit.SECONDS);
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+                    //2. 一批订单在一个事务中创建
+                    handleVoucherOrders(batch);
                 } catch (Exception e) {
                     log.error("异常信息！",e);
+                } finally {
+                    batch.clear();
                 }
             }
         }
@@ -118,35 +164,26 @@ public class VoucherOrderServiceImpl2 extends ServiceImpl<VoucherOrderMapper, Vo
 
 
     /**
-     *  异步创建订单
-     *  1.要注意一个事情，就是 这个方法是由另外开启的线程执行的，不是由主线程执行的
-     *       1.1userId不能从 UserHolder中获取，可以从订单信息中获取
-     *       1.2该类的动态代理对象是获取不到的，只能从主线程中获取，然后通过成员变量的方式获取
-     *   2. 这里的锁可以不用加了，因为在Redis中已经执行过了，确保不会线程安全问题
-     *      这里还是保留原来的加锁操作，为了进一步的保险吧，虽然没啥用…………
+     *  异步创建一批订单
+     *  1.这个方法是由另外开启的线程执行的，不是由主线程执行的，userId 从订单信息中获取
+     *  2.不再加锁：一人一单已经在Redis中判断过，不会有同一个用户的两个订单
+     *  3.整批失败时逐条创建，避免一个订单拖累整批
      *
-     * @param voucherOrder 订单信息
+     * @param voucherOrders 订单信息
      */
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        //创建锁对象，使用构造函数注入参数
-        // 将锁的范围，减少到 每个用户上
-        RLock lock = redissonClient.getLock(LOCK_VOUCHER_ORDER + userId);
-        //无参数，默认失败不等待；锁的存在时间无限长，直到锁释放
-        boolean isLock = lock.tryLock();
-        if (!isLock) {
-            // 获取锁失败，直接返回失败
-            log.info("不允许重复下单！");
-            return;
-        }
+    private void handleVoucherOrders(List<VoucherOrder> voucherOrders) {
         try {
-            //执行事务
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            //释放锁
-            lock.unlock();
+            proxy.createVoucherOrders(voucherOrders);
+        } catch (Exception e) {
+            log.error("批量创建订单失败，逐条创建！", e);
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                try {
+                    proxy.createVoucherOrders(Collections.singletonList(voucherOrder));
+                } catch (Exception ex) {
+                    log.error("订单创建失败：{}", voucherOrder, ex);
+                }
+            }
         }
-
     }
 
 
@@ -154,11 +191,14 @@ public class VoucherOrderServiceImpl2 extends ServiceImpl<VoucherOrderMapper, Vo
     /**
      * 完成秒杀优惠券抢购---主线程
      *
+     *  -- 本地
+     *  0. 本地标记为售罄、且没有预领的库存时，直接返回，不访问Redis
      *  -- redis
-     *  1. 调用lua脚本，执行库存判断，一人一单判断
-     *  2. 判断执行结果是否为0，非0返回错误，是0则执行异步扣减库存和创建订单操作
-     *  3. 创建阻塞队列，将订单信息存入
-     *  4. 给成员变量 proxy赋值，供其他线程调用
+     *  1. 调用lua脚本，执行库存判断，一人一单判断；启用库存预领时，库存在本地扣减，脚本只判断一人一单
+     *  2. 判断执行结果是否为0，非0返回错误；库存不足时标记售罄
+     *  3. 成功后再生成订单id、占用环形队列的槽位，写入后立即发布
+     *     消费者按序号顺序读取，占着槽位等待Redis会阻塞后面所有的订单，所以Redis调用都在占槽位之前完成
+     *  4. 队列满时(很少发生)，Redis已经扣了库存，走补偿：同步创建订单；同步创建也失败时撤销Redis中的秒杀
      *  5. 返回订单id，给前端
      *
      *
@@ -169,38 +209,120 @@ public class VoucherOrderServiceImpl2 extends ServiceImpl<VoucherOrderMapper, Vo
     public Result seckillVoucher(Long voucherId, HttpServletRequest request) {
         //0. 获取参数
         Long userId = UserHolder.getUser().getId();
+        // 开始/结束时间和上架状态在本地判断，不查询数据库
+        long now = System.currentTimeMillis();
+        int check = seckillVoucherCache.check(voucherId, now);
+        if (check != SeckillVoucherMeta.OK) {
+            return Result.fail(SeckillVoucherMeta.failMessage(check));
+        }
+        if (stockLease.remaining(voucherId) == 0 && soldOut.isSoldOut(voucherId)) {
+            return Result.fail("库存不足！");
+        }
 
         //1. 执行lua脚本
-        Long res = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString()
-        );
-        int r = res.intValue();
+        boolean leased = stockLease.enabled();
+        int r = leased ? seckillWithLease(voucherId, userId, now) : seckill(voucherId, userId, now);
 
         //2. 判断结果是否为0
         if (r != 0) {
-            //不为0,代表没有购买资格；1代表库存不足，2代表重复下单
-            return  Result.fail(r == 1 ? "库存不足！" : "重复下单！");
+            //不为0,代表没有购买资格；1代表库存不足，2代表重复下单，3、4代表不在秒杀时间内(以Redis中的时间为准)
+            if (r == SeckillVoucherMeta.SOLD_OUT) {
+                soldOut.markSoldOut(voucherId);
+            }
+            return  Result.fail(SeckillVoucherMeta.failMessage(r));
         }
 
-        //3.为0，有购买资格，把下单消息存到阻塞队列
-        //3.1 创建订单，封装订单信息
-        VoucherOrder voucherOrder = new VoucherOrder();
-        // 获取订单全局唯一id
+        //3.为0，有购买资格，获取订单全局唯一id
         long orderId = redisIdWorker.nextId(VOUCHER_ORDER);
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucherId);
-        orderTasks.add(voucherOrder);
 
-        //4. 获取该类的动态代理对象，供异步线程使用
-        proxy = (IVoucherOrderService)AopContext.currentProxy();
+        //3.1 占一个槽位，把订单信息写入槽位，不创建新对象；写入后立即发布
+        long seq = orderRing.next(ORDER_RING_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (seq < 0) {
+            //4. 队列满，Redis中已经下单成功，走补偿
+            return compensate(new VoucherOrder().setId(orderId).setUserId(userId).setVoucherId(voucherId), leased);
+        }
+        try {
+            orderRing.get(seq).setId(orderId).setUserId(userId).setVoucherId(voucherId);
+        } finally {
+            orderRing.publish(seq);
+        }
 
         //5.返回订单id
         return Result.ok(orderId);
     }
 
+    /**
+     * 补偿：Redis中已经下单成功，但是环形队列已满，订单无法交给异步线程
+     *  1. 在请求线程中同步创建订单，创建是幂等的
+     *  2. 同步创建也失败时，撤销Redis中的下单用户并归还库存，用户可以重新抢购
+     *
+     * @param voucherOrder 订单
+     * @param leased 库存是否为本结点预领的
+     * @return 标准结果
+     */
+    private Result compensate(VoucherOrder voucherOrder, boolean leased) {
+        Long voucherId = voucherOrder.getVoucherId();
+        Long userId = voucherOrder.getUserId();
+        log.warn("订单队列已满，同步创建订单：{}", voucherOrder);
+        try {
+            proxy.createVoucherOrders(Collections.singletonList(voucherOrder));
+            return Result.ok(voucherOrder.getId());
+        } catch (Exception e) {
+            log.error("同步创建订单失败，撤销Redis中的秒杀：{}", voucherOrder, e);
+        }
+        String tag = RedisScripts.hashTag(voucherId);
+        Long removed = redisScripts.execute(
+                LuaScript.SECKILL_ROLLBACK,
+                Arrays.asList(SECKILL_STOCK_KEY + tag, SECKILL_ORDER_KEY + tag,
+                        BuyerDedup.buyerKey(voucherId, userId), SECKILL_VOUCHER_KEY + tag),
+                userId, BuyerDedup.offset(userId), leased ? 0 : 1
+        );
+        if (removed != null && removed == 1) {
+            if (leased) {
+                stockLease.release(voucherId);
+            } else {
+                // 库存加回去了，其他结点的售罄标记也要删除
+                soldOut.reset(voucherId);
+            }
+        }
+        return Result.fail("下单人数太多，请稍后再试！");
+    }
+
+    /**
+     * 在Redis中判断秒杀时间、库存和一人一单
+     * @return 0 成功；1 库存不足；2 重复下单；3 未开始；4 已结束
+     */
+    private int seckill(Long voucherId, Long userId, long now) {
+        String tag = RedisScripts.hashTag(voucherId);
+        Long res = redisScripts.execute(
+                LuaScript.SECKILL2,
+                Arrays.asList(SECKILL_STOCK_KEY + tag, SECKILL_ORDER_KEY + tag,
+                        BuyerDedup.buyerKey(voucherId, userId), SECKILL_VOUCHER_KEY + tag),
+                userId, BuyerDedup.offset(userId), now
+        );
+        return res.intValue();
+    }
+
+    /**
+     * 在本地预领的库存中扣减，在Redis中判断秒杀时间和一人一单；失败时把库存还给本地
+     * @return 0 成功；1 库存不足；2 重复下单；3 未开始；4 已结束
+     */
+    private int seckillWithLease(Long voucherId, Long userId, long now) {
+        if (!stockLease.tryAcquire(voucherId)) {
+            return 1;
+        }
+        String tag = RedisScripts.hashTag(voucherId);
+        Long res = redisScripts.execute(
+                LuaScript.SECKILL_LEASE,
+                Arrays.asList(SECKILL_ORDER_KEY + tag, BuyerDedup.buyerKey(voucherId, userId), SECKILL_VOUCHER_KEY + tag),
+                userId, BuyerDedup.offset(userId), now
+        );
+        if (res.intValue() != 0) {
+            stockLease.release(voucherId);
+        }
+        return res.intValue();
+    }
+
 
 
 
@@ -209,13 +331,9 @@ public class VoucherOrderServiceImpl2 extends ServiceImpl<VoucherOrderMapper, Vo
      *  创建秒杀优惠券订单
      *  扣减库存和保存订单
      *
-     *
-     *  1. 根据优惠券id和用户id查询数据库中订单
-     *      1.1 订单存在，返回失败
-     *      1.2 订单不存在，扣减库存 -- 乐观锁
-     *      补充说明：其实这里的一人一单查询和乐观锁都没有必要，因为这里只需要执行扣单操作即可，前面已经在Redis中处理过了
-     *  2. 将订单保存的数据库中
-     *
+     *  一人一单由唯一索引 (user_id, voucher_id) 保证，不再先查询订单，也不再加锁
+     *  1. INSERT IGNORE 保存订单，插入0行说明订单已经存在(消息重复投递或一人多单)，直接返回
+     *  2. 插入成功才扣减库存 -- 乐观锁；库存不足时抛出异常，回滚订单
      *
      * @param voucherOrder 订单信息
      *
@@ -223,29 +341,7 @@ public class VoucherOrderServiceImpl2 extends ServiceImpl<VoucherOrderMapper, Vo
     @Transactional
     @Override
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        Long voucherId = voucherOrder.getVoucherId();
-
-        //1. 根据优惠券id和用户id查询数据库中订单
-        int count = lambdaQuery().eq(VoucherOrder::getUserId, userId)
-                .eq(VoucherOrder::getVoucherId, voucherId).count();
-//        1.1 订单存在，返回失败
-        if (count > 0) {
-            log.error("你已经抢购了，把机会留给别人吧！");
-        }
-
-        //1.2 扣减库存-乐观锁
-        //写sql方式，修改库存字段
-        boolean success = seckillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherId).gt("stock", 0)
-                .update();
-        if (!success) {
-            log.error("很遗憾，优惠券已经被抢完！");
-        }
-
-        //2.保存订单信息到数据库中
-        save(voucherOrder);
+        createVoucherOrders(Collections.singletonList(voucherOrder));
     }
 
 
@@ -258,4 +354,39 @@ public class VoucherOrderServiceImpl2 extends ServiceImpl<VoucherOrderMapper, Vo
     public Result createVoucherOrder(Long voucherId, Long userId) {
         return Result.ok("ok！");
     }
+
+    /**
+     * 批量创建订单，一批订单一个事务，可以重复执行
+     *  一人一单和库存已经在Redis中判断过了，这里不再加锁，也不再预先查询订单
+     *  1. 按优惠券分组，按优惠券id的顺序处理，多个事务之间不会死锁
+     *  2. 每个优惠券一条多行 INSERT IGNORE，已经存在的订单(重复投递、一人多单)被唯一索引忽略
+     *  3. 按实际插入的行数扣减一次库存；库存不足时抛出异常，回滚整批
+     * @param voucherOrders 订单信息
+     */
+    @Transactional
+    @Override
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1. 按优惠券分组
+        Map<Long, List<VoucherOrder>> groups = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, TreeMap::new, Collectors.toList()));
+        groups.forEach((voucherId, orders) -> {
+            //2. INSERT IGNORE，返回实际插入的行数
+            int inserted = getBaseMapper().insertIgnoreBatch(orders);
+            if (inserted < orders.size()) {
+                log.info("忽略已经存在的订单 {} 个，优惠券：{}", orders.size() - inserted, voucherId);
+            }
+            if (inserted == 0) {
+                return;
+            }
+            //3. 扣减库存
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", voucherId).ge("stock", inserted)
+                    .update();
+            if (!success) {
+                // 回滚整批，逐条重试
+                throw new RuntimeException("库存不足，优惠券：" + voucherId);
+            }
+        });
+    }
 }
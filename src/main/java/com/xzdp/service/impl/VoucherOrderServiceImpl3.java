@@ -1,33 +1,49 @@
 package com.xzdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.xzdp.dto.Result;
 import com.xzdp.entity.VoucherOrder;
 import com.xzdp.mapper.VoucherOrderMapper;
 import com.xzdp.service.ISeckillVoucherService;
 import com.xzdp.service.IVoucherOrderService;
+import com.xzdp.utils.Queue.OrderPartitioner;
 import com.xzdp.utils.Redis.RedisIdWorker;
+import com.xzdp.utils.Redis.Script.LuaScript;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import com.xzdp.utils.Redis.Seckill.BuyerDedup;
+import com.xzdp.utils.Redis.Seckill.SeckillVoucherCache;
+import com.xzdp.utils.Redis.Seckill.SeckillVoucherMeta;
+import com.xzdp.utils.Redis.Seckill.SoldOutRegistry;
+import com.xzdp.utils.Redis.Stream.PendingReclaimer;
 import com.xzdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.xzdp.utils.Constants.RedisConstants.*;
 
@@ -40,6 +56,7 @@ import static com.xzdp.utils.Constants.RedisConstants.*;
  *
  *   1.使用lua脚本完成库存判断和一人一单判断
  *   2.使用redis的stream作为消息队列（mq）,来进行异步的消息传递，进行订单创建和库存扣减工作
+ *     每张秒杀券一个消息队列 stream.orders:{voucherId}，与库存key使用相同的 hash tag，lua脚本可以在Redis集群上执行
  *
  * </p>
  *
@@ -60,173 +77,359 @@ public class VoucherOrderServiceImpl3 extends ServiceImpl<VoucherOrderMapper, Vo
     private RedisIdWorker redisIdWorker;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SoldOutRegistry soldOut;
+
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
 
     /**
-     * 获取该类的动态代理对象，用成员变量的方式，让异步线程获取
+     * 该类的动态代理对象，异步线程通过它调用事务方法
+     * 延迟注入自己，消费者线程启动时就可以使用，不用等第一个秒杀请求
      */
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
 
 
     /**
-     * 使用静态代码块的方式引入lua脚本
-     * 返回值类型 数字必须为Long类型， Integer类型会报错
+     * lua脚本统一由注册中心预加载，通过 EVALSHA 执行
      */
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        //spring 提供的ClassPathResource，默认文件夹是 resources文件
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        // key 设置返回值类型 数字必须为Long类型
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    @Resource
+    private RedisScripts redisScripts;
+
+
+    /**
+     * 消费者名称的前缀，主机名 + 端口，同一个结点重启后名称不变，可以继续处理自己的pending-list
+     */
+    @Value("${server.port:8080}")
+    private String serverPort;
+
+    /**
+     * 每个分区队列的容量
+     */
+    private static final int PARTITION_CAPACITY = 1024;
+
+    /**
+     * 所有消息队列都没有新消息时，读取线程休眠的时间，毫秒
+     */
+    private static final long STREAM_POLL_MILLIS = 200L;
+
+    /**
+     * 秒杀结束之后继续读取消息的时间，毫秒；之后剩下的pending消息由认领任务处理
+     */
+    private static final long STREAM_READ_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
+    //读取消息的线程，每个结点一个消费者
+    private final ExecutorService SECKILL_ORDER_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("stream-order-", true));
 
-    //异步处理线程池-创建一个单线程
-    private final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    //定时认领其他消费者的pending消息，并裁剪消息队列
+    private final ScheduledExecutorService RECLAIM_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("stream-reclaim-", true));
+
+    /**
+     * 按用户id分区处理订单，同一个用户的订单由同一个线程按顺序处理，消费端不需要加锁
+     */
+    private OrderPartitioner<MapRecord<String, Object, Object>> partitioner;
+
+    /**
+     * 消息队列 -> 认领任务，每个消息队列一个
+     */
+    private final Map<String, PendingReclaimer> reclaimers = new ConcurrentHashMap<>();
+
+    /**
+     * 已经创建了消费者组、分配过pendinglist的消息队列
+     */
+    private final Set<String> readyStreams = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 已经删除的消息队列，不再检查
+     */
+    private final Set<String> deletedStreams = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 消费者名称的前缀
+     */
+    private String consumerPrefix;
 
     /**
      * 将任务提交给线程处理
      * 该注解，是当类初始化完毕后，就自动执行，所以任务就自动提交了
      * 我们的线程会一直盯着redis的stream队列，进行异步消息的获取
+     *
+     * 每个结点一个消费者读取所有秒杀券的消息，按用户id分配给分区线程处理
      */
     @PostConstruct
     private void init() {
-        //提交任务给线程
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        //1. 分区线程，一批订单一个事务
+        partitioner = new OrderPartitioner<>("stream-partition-", STREAM_PARTITIONS, PARTITION_CAPACITY, STREAM_BATCH_SIZE,
+                record -> Long.parseLong(record.getValue().get("userId").toString()), this::handleBatch);
+        //2. 读取消息的消费者，名称唯一
+        consumerPrefix = NetUtil.getLocalHostName() + ":" + serverPort + "-c";
+        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler(consumerPrefix + 0));
+        //3. 认领空闲太久的pending消息(例如消费者所在结点宕机、分区处理失败)，超过投递次数的转移到死信队列
+        RECLAIM_EXECUTOR.scheduleWithFixedDelay(this::reclaimAll,
+                STREAM_RECLAIM_INTERVAL, STREAM_RECLAIM_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        SECKILL_ORDER_EXECUTOR.shutdownNow();
+        partitioner.shutdown();
+        RECLAIM_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 消息转换为订单
+     */
+    private static List<VoucherOrder> toOrders(List<MapRecord<String, Object, Object>> list) {
+        List<VoucherOrder> orders = new ArrayList<>(list.size());
+        for (MapRecord<String, Object, Object> record : list) {
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        return orders;
+    }
+
+    /**
+     * 秒杀券的消息队列，与库存key、订单key使用相同的 hash tag
+     * @param voucherId 优惠券id
+     * @return stream.orders:{voucherId}
+     */
+    private static String streamKey(Long voucherId) {
+        return QUEUENAME + ":" + RedisScripts.hashTag(voucherId);
     }
 
     /**
-     *   创建线程任务
+     * 需要处理的消息队列
+     *  读取：进行中的秒杀券，结束后再读取一小段时间
+     *  认领：结束不超过 STREAM_RETAIN_HOURS 的秒杀券
+     *  升级前共用的 stream.orders 两者都包括，处理完剩下的消息
+     * @param reading true 读取；false 认领
+     */
+    private List<String> activeStreams(boolean reading) {
+        long now = System.currentTimeMillis();
+        long since = reading ? now - STREAM_READ_GRACE_MILLIS : now - TimeUnit.HOURS.toMillis(STREAM_RETAIN_HOURS);
+        List<String> streams = new ArrayList<>();
+        streams.add(QUEUENAME);
+        for (SeckillVoucherMeta meta : seckillVoucherCache.all()) {
+            if (meta.getEndMillis() < since || (reading && meta.getBeginMillis() > now + STREAM_READ_GRACE_MILLIS)) {
+                continue;
+            }
+            streams.add(streamKey(meta.getVoucherId()));
+        }
+        return streams;
+    }
+
+    /**
+     * 消费者组不存在时创建  XGROUP CREATE stream.orders:{voucherId} g1 0 MKSTREAM
+     */
+    private void createGroupIfAbsent(String stream) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    stringRedisTemplate.getStringSerializer().serialize(stream), STREAM_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")
+                    && (e.getCause() == null || !String.valueOf(e.getCause().getMessage()).contains("BUSYGROUP"))) {
+                throw e;
+            }
+            // BUSYGROUP 消费者组已经存在
+            log.debug("消费者组已经存在：{}", stream);
+        }
+    }
+
+    /**
+     * 认领的消息同样交给分区线程，同一个用户的订单不会被两个线程同时处理；由 handleBatch 确认
+     */
+    private PendingReclaimer reclaimer(String stream) {
+        return reclaimers.computeIfAbsent(stream, s -> new PendingReclaimer(stringRedisTemplate, s, STREAM_GROUP,
+                consumerPrefix + "reclaim", this::dispatchClaimed, false));
+    }
+
+    private void dispatchClaimed(List<MapRecord<String, Object, Object>> list) {
+        try {
+            partitioner.dispatch(list);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 认领所有消息队列的pending消息；消费者组由读取线程创建，还没有创建的跳过
+     * 结束超过 STREAM_RETAIN_HOURS 的秒杀券，消息都处理完后删除它的消息队列
+     */
+    private void reclaimAll() {
+        for (String stream : activeStreams(false)) {
+            if (readyStreams.contains(stream)) {
+                reclaimer(stream).reclaim();
+            }
+        }
+        deleteExpiredStreams();
+    }
+
+    private void deleteExpiredStreams() {
+        long retainSince = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(STREAM_RETAIN_HOURS);
+        for (SeckillVoucherMeta meta : seckillVoucherCache.all()) {
+            String stream = streamKey(meta.getVoucherId());
+            if (meta.getEndMillis() >= retainSince || deletedStreams.contains(stream)) {
+                continue;
+            }
+            try {
+                if (reclaimer(stream).deleteIfDrained()) {
+                    deletedStreams.add(stream);
+                    reclaimers.remove(stream);
+                    readyStreams.remove(stream);
+                }
+            } catch (Exception e) {
+                log.error("删除消息队列失败：{}", stream, e);
+            }
+        }
+    }
+
+    /**
+     * 按消息队列确认  xack stream.orders:{voucherId} g1 id1 id2 ...
+     */
+    private void acknowledge(List<MapRecord<String, Object, Object>> list) {
+        list.stream().collect(Collectors.groupingBy(MapRecord::getStream,
+                Collectors.mapping(MapRecord::getId, Collectors.toList())))
+                .forEach((stream, ids) -> {
+                    RecordId[] array = ids.toArray(new RecordId[0]);
+                    stringRedisTemplate.opsForStream().acknowledge(stream, STREAM_GROUP, array);
+                    PendingReclaimer reclaimer = reclaimers.get(stream);
+                    if (reclaimer != null) {
+                        reclaimer.acknowledged(array);
+                    }
+                });
+    }
+
+    /**
+     * 分区线程处理一批消息：一个事务保存所有订单，一次 XACK 确认所有消息
+     * 整批失败时逐条处理，避免一条坏消息拖住整批
+     */
+    private void handleBatch(List<MapRecord<String, Object, Object>> list) {
+        try {
+            proxy.createVoucherOrders(toOrders(list));
+            // 一批消息可能来自多张秒杀券的消息队列
+            acknowledge(list);
+        } catch (Exception e) {
+            log.error("批量创建订单失败，逐条创建！", e);
+            list.forEach(this::handleOne);
+        }
+    }
+
+    /**
+     * 单条消息，失败时保留在pendinglist中，由认领任务重试
+     */
+    private void handleOne(MapRecord<String, Object, Object> record) {
+        try {
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            proxy.createVoucherOrders(Collections.singletonList(voucherOrder));
+            stringRedisTemplate.opsForStream().acknowledge(record.getStream(), STREAM_GROUP, record.getId());
+            reclaimer(record.getStream()).acknowledged(record.getId());
+        } catch (Exception e) {
+            // 记录失败原因，转移到死信队列时一起保存
+            reclaimer(record.getStream()).recordFailure(record.getId(), e);
+            log.error("订单处理失败：{}", record.getId(), e);
+        }
+    }
+
+    /**
+     * 读取一个消息队列，最多一批，不阻塞  xreadgroup group g1 c0 count N streams stream.orders:{voucherId} offset
+     *  read 的参数是泛型可变参数，只读一个队列时创建的数组是安全的
+     */
+    @SuppressWarnings("unchecked")
+    private List<MapRecord<String, Object, Object>> read(String consumerName, String stream, ReadOffset offset) {
+        return stringRedisTemplate.opsForStream().read(
+                Consumer.from(STREAM_GROUP, consumerName),
+                StreamReadOptions.empty().count(STREAM_BATCH_SIZE),
+                StreamOffset.create(stream, offset)
+        );
+    }
+
+    /**
+     *   读取消息的线程任务
      */
     private class VoucherOrderHandler implements Runnable {
 
-        private static final String GROUPNAME = "g1";
-        private static final String CONSUMERNAME = "c1";
+        private final String consumerName;
+
+        VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
 
         /**
-         *  监听队列中的消息，并进行处理
-         * 1. 尝试获取队列中的消息
-         * 2. 判断消息获取是否成功，失败则代表没有消息，继续循环
-         * 3. 成功，则处理队列消息，提取出订单消息
-         * 4. 处理订单业务，并返回ack
-         * 5. 消息处理无异常，则继续循环；若有异常，则去处理pendinglist中的信息
+         *  轮询进行中的秒杀券的消息队列，并分配给分区线程
+         *  每个消息队列在不同的slot上，Redis集群中不能用一条 XREADGROUP 阻塞读取多个队列，只能轮询
+         * 1. 第一次读取一个队列时，创建消费者组，并分配自己pendinglist中的消息(上次停止前没有确认的)
+         * 2. 依次读取每个队列，一次最多读取一批，不阻塞；所有队列都没有消息时休眠一小段时间
+         * 3. 读到消息，则按用户id分配给分区线程；分区队列满时等待
+         * 4. 分区线程处理完一批后确认；处理失败的消息留在pendinglist中，由认领任务重试
          */
         @Override
         public void run() {
-            while (true) {
-                //log.info("我在监听stream消息~！！");
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    //1. 获取队列中的消息  xreadgroup group g1 c1 count 1 block 2000 streams stream.orders >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from(GROUPNAME, CONSUMERNAME),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(QUEUENAME, ReadOffset.lastConsumed())
-                    );
-                    //2. 判断消息获取是否成功
-                    if (list == null || list.isEmpty()) {
-                        //2.1 失败，说明没有消息，继续循环
-                        continue;
+                    int read = 0;
+                    for (String stream : activeStreams(true)) {
+                        //1. 第一次读取这个队列
+                        if (!readyStreams.contains(stream)) {
+                            createGroupIfAbsent(stream);
+                            dispatchPendingList(stream);
+                            readyStreams.add(stream);
+                        }
+                        //2. 获取队列中的消息  xreadgroup group g1 c0 count N streams stream.orders:{voucherId} >
+                        List<MapRecord<String, Object, Object>> list = read(consumerName, stream, ReadOffset.lastConsumed());
+                        if (list == null || list.isEmpty()) {
+                            continue;
+                        }
+                        //3. 分配给分区线程
+                        partitioner.dispatch(list);
+                        read += list.size();
                     }
-
-                    //3 解析队列中的订单消息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    log.info("捕获订单！{}",voucherOrder);
-
-                    //4 处理订单事务，并返回ACK确认 xack stream.orders g1 id
-                    handleVoucherOrder(voucherOrder);
-                    stringRedisTemplate.opsForStream().acknowledge(QUEUENAME, GROUPNAME, record.getId());
-                    log.info("订单处理完成！已经返回ACK");
+                    if (read == 0) {
+                        Thread.sleep(STREAM_POLL_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 } catch (Exception e) {
-                    //5.业务处理异常，消息会存到pendinglist中
-                    log.error("业务异常！",e);
-                    handlePendingList();
+                    log.error("读取消息失败！", e);
+                    pause();
                 }
             }
         }
 
         /**
-         * 处理因为异常，存到pendinglist中的消息，与上面逻辑基本一致
+         * 分配pendinglist中的消息  xreadgroup group g1 c0 count N streams stream.orders:{voucherId} id
          */
-        private void handlePendingList() {
-            log.info("我在处理pendinglist的消息~！！");
-            int count = 0;
-            while (true) {
+        private void dispatchPendingList(String stream) {
+            String offset = "0";
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    //1. 获取pendinglist中的消息  xreadgroup group g1 c1 count 1  streams stream.orders 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from(GROUPNAME, CONSUMERNAME),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(QUEUENAME, ReadOffset.from("0"))
-                    );
-                    //2. 判断消息获取是否成功
+                    List<MapRecord<String, Object, Object>> list = read(consumerName, stream, ReadOffset.from(offset));
                     if (list == null || list.isEmpty()) {
-                        //2.1 失败，说明没有消息，结束循环
-                        break;
+                        return;
                     }
-
-                    //3 解析队列中的订单消息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-
-                    //4 处理订单事务，并返回ACK确认 xack stream.orders g1 id
-                    handleVoucherOrder(voucherOrder);
-                    stringRedisTemplate.opsForStream().acknowledge(QUEUENAME, GROUPNAME, record.getId());
+                    log.info("{} 分配 {} pendinglist中的 {} 条消息", consumerName, stream, list.size());
+                    partitioner.dispatch(list);
+                    offset = list.get(list.size() - 1).getId().getValue();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 } catch (Exception e) {
-                    //业务处理异常，消息会存到pendinglist中
-                    log.error("pendinglist处理发生异常！",e);
-                    count++;
-                    if (count > 10) {
-                        log.info("异常次数太多，交易人工处理！");
-                        break;
-                    }
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
-                    }
+                    // 剩下的消息由认领任务处理
+                    log.error("pendinglist分配失败！", e);
+                    return;
                 }
             }
         }
-    }
-
-
 
-
-    /**
-     *  异步创建订单
-     *  1.要注意一个事情，就是 这个方法是由另外开启的线程执行的，不是由主线程执行的
-     *       1.1userId不能从 UserHolder中获取，可以从订单信息中获取
-     *       1.2该类的动态代理对象是获取不到的，只能从主线程中获取，然后通过成员变量的方式获取
-     *   2. 这里的锁可以不用加了，因为在Redis中已经执行过了，确保不会线程安全问题
-     *      这里还是保留原来的加锁操作，为了进一步的保险吧，虽然没啥用…………
-     *
-     * @param voucherOrder 订单信息
-     */
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        //创建锁对象，使用构造函数注入参数
-        // 将锁的范围，减少到 每个用户上
-        RLock lock = redissonClient.getLock(LOCK_VOUCHER_ORDER + userId);
-        //无参数，默认失败不等待；锁的存在时间无限长，直到锁释放
-        boolean isLock = lock.tryLock();
-        if (!isLock) {
-            // 获取锁失败，直接返回失败
-            log.info("不允许重复下单！");
-            return;
-        }
-        try {
-            //执行事务
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            //释放锁
-            lock.unlock();
+        private void pause() {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
         }
-
     }
 
 
@@ -237,8 +440,7 @@ public class VoucherOrderServiceImpl3 extends ServiceImpl<VoucherOrderMapper, Vo
      *  -- redis
      *  1. 调用lua脚本，执行库存判断，一人一单判断
      *  2. 判断执行结果是否为0，非0返回错误，是0则执行异步扣减库存和创建订单操作
-     *  3. 给成员变量 proxy赋值，供其他线程调用
-     *  4. 返回订单id，给前端
+     *  3. 返回订单id，给前端
      *
      *
      * @param voucherId 优惠券id
@@ -248,27 +450,40 @@ public class VoucherOrderServiceImpl3 extends ServiceImpl<VoucherOrderMapper, Vo
     public Result seckillVoucher(Long voucherId, HttpServletRequest request) {
         //0. 获取参数
         Long userId = UserHolder.getUser().getId();
+        // 开始/结束时间和上架状态在本地判断，不查询数据库
+        long now = System.currentTimeMillis();
+        int check = seckillVoucherCache.check(voucherId, now);
+        if (check != SeckillVoucherMeta.OK) {
+            return Result.fail(SeckillVoucherMeta.failMessage(check));
+        }
+        // 本地标记为售罄时直接返回，不访问Redis，也不浪费订单id
+        if (soldOut.isSoldOut(voucherId)) {
+            return Result.fail("库存不足！");
+        }
         // 获取订单全局唯一id
         long orderId = redisIdWorker.nextId(VOUCHER_ORDER);
 
         //1. 执行lua脚本
-        Long res = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
+        // 库存key、订单key和这张秒杀券的消息队列使用相同的 hash tag，在同一个slot上
+        String tag = RedisScripts.hashTag(voucherId);
+        Long res = redisScripts.execute(
+                LuaScript.SECKILL,
+                Arrays.asList(SECKILL_STOCK_KEY + tag, SECKILL_ORDER_KEY + tag, streamKey(voucherId),
+                        BuyerDedup.buyerKey(voucherId, userId), SECKILL_VOUCHER_KEY + tag),
+                voucherId, userId, orderId, BuyerDedup.offset(userId), now
         );
         int r = res.intValue();
 
         //2. 判断结果是否为0
         if (r != 0) {
-            //不为0,代表没有购买资格；1代表库存不足，2代表重复下单
-            return  Result.fail(r == 1 ? "库存不足！" : "重复下单！");
+            //不为0,代表没有购买资格；1代表库存不足，2代表重复下单，3、4代表不在秒杀时间内(以Redis中的时间为准)
+            if (r == SeckillVoucherMeta.SOLD_OUT) {
+                soldOut.markSoldOut(voucherId);
+            }
+            return  Result.fail(SeckillVoucherMeta.failMessage(r));
         }
 
-        //3. 获取该类的动态代理对象，供异步线程使用
-        proxy = (IVoucherOrderService)AopContext.currentProxy();
-
-        //4.返回订单id
+        //3.返回订单id
         return Result.ok(orderId);
     }
 
@@ -280,13 +495,9 @@ public class VoucherOrderServiceImpl3 extends ServiceImpl<VoucherOrderMapper, Vo
      *  创建秒杀优惠券订单
      *  扣减库存和保存订单
      *
-     *
-     *  1. 根据优惠券id和用户id查询数据库中订单
-     *      1.1 订单存在，返回失败
-     *      1.2 订单不存在，扣减库存 -- 乐观锁
-     *      补充说明：其实这里的一人一单查询和乐观锁都没有必要，因为这里只需要执行扣单操作即可，前面已经在Redis中处理过了
-     *  2. 将订单保存的数据库中
-     *
+     *  一人一单由唯一索引 (user_id, voucher_id) 保证，不再先查询订单，也不再加锁
+     *  1. INSERT IGNORE 保存订单，插入0行说明订单已经存在(消息重复投递或一人多单)，直接返回
+     *  2. 插入成功才扣减库存 -- 乐观锁；库存不足时抛出异常，回滚订单
      *
      * @param voucherOrder 订单信息
      *
@@ -294,29 +505,43 @@ public class VoucherOrderServiceImpl3 extends ServiceImpl<VoucherOrderMapper, Vo
     @Transactional
     @Override
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        Long voucherId = voucherOrder.getVoucherId();
-
-        //1. 根据优惠券id和用户id查询数据库中订单
-        int count = lambdaQuery().eq(VoucherOrder::getUserId, userId)
-                .eq(VoucherOrder::getVoucherId, voucherId).count();
-//        1.1 订单存在，返回失败
-        if (count > 0) {
-            log.error("你已经抢购了，把机会留给别人吧！");
-        }
+        createVoucherOrders(Collections.singletonList(voucherOrder));
+    }
 
-        //1.2 扣减库存-乐观锁
-        //写sql方式，修改库存字段
-        boolean success = seckillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherId).gt("stock", 0)
-                .update();
-        if (!success) {
-            log.error("很遗憾，优惠券已经被抢完！");
-        }
 
-        //2.保存订单信息到数据库中
-        save(voucherOrder);
+    /**
+     * 批量创建订单，一批订单一个事务，可以重复执行
+     *  一人一单和库存已经在Redis中判断过了，这里不再加锁，也不再预先查询订单
+     *  1. 按优惠券分组，按优惠券id的顺序处理，多个事务之间不会死锁
+     *  2. 每个优惠券一条多行 INSERT IGNORE，已经存在的订单(重复投递、一人多单)被唯一索引忽略
+     *  3. 按实际插入的行数扣减一次库存；库存不足时抛出异常，回滚整批
+     * @param voucherOrders 订单信息
+     */
+    @Transactional
+    @Override
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1. 按优惠券分组
+        Map<Long, List<VoucherOrder>> groups = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, TreeMap::new, Collectors.toList()));
+        groups.forEach((voucherId, orders) -> {
+            //2. INSERT IGNORE，返回实际插入的行数
+            int inserted = getBaseMapper().insertIgnoreBatch(orders);
+            if (inserted < orders.size()) {
+                log.info("忽略已经存在的订单 {} 个，优惠券：{}", orders.size() - inserted, voucherId);
+            }
+            if (inserted == 0) {
+                return;
+            }
+            //3. 扣减库存
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", voucherId).ge("stock", inserted)
+                    .update();
+            if (!success) {
+                // 回滚整批，消息留在pendinglist中
+                throw new RuntimeException("库存不足，优惠券：" + voucherId);
+            }
+        });
     }
 
 
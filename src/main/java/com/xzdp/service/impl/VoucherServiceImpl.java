@@ -7,14 +7,23 @@ import com.xzdp.mapper.VoucherMapper;
 import com.xzdp.entity.SeckillVoucher;
 import com.xzdp.service.ISeckillVoucherService;
 import com.xzdp.service.IVoucherService;
+import com.xzdp.utils.Redis.Cache.XzCacheEvict;
+import com.xzdp.utils.Redis.Cache.XzCached;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import com.xzdp.utils.Redis.Seckill.BuyerDedup;
+import com.xzdp.utils.Redis.Seckill.SeckillVoucherCache;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-import static com.xzdp.utils.Constants.RedisConstants.SECKILL_STOCK_KEY;
+import static com.xzdp.utils.Constants.RedisConstants.*;
 
 /**
  * <p>
@@ -34,7 +43,18 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    /**
+     * 查询店铺的优惠券列表
+     *  列表中包含秒杀券的库存，缓存时间较短
+     * @param shopId 店铺id
+     * @return 优惠券列表
+     */
     @Override
+    @XzCached(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#shopId", ttl = CACHE_SHOP_VOUCHER_TTL, unit = TimeUnit.SECONDS,
+            dataType = Voucher.class)
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
         List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
@@ -50,6 +70,7 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
      */
     @Override
     @Transactional
+    @XzCacheEvict(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券到数据库
         save(voucher);
@@ -65,7 +86,22 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 //        System.out.println(json);
 //        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), json);
 
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // key 使用 hash tag，与同一个优惠券的订单key落在同一个slot上，秒杀脚本才能在Redis集群上执行
+        String tag = RedisScripts.hashTag(voucher.getId());
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + tag, voucher.getStock().toString());
+        // 一人一单的去重方式，秒杀脚本从这里读取；用户量很大的秒杀券使用bitmap，节省内存
+        // 开始/结束时间(毫秒)，秒杀脚本据此判断是否在秒杀时间内
+        Map<String, String> fields = SeckillVoucherCache.timeFields(seckillVoucher);
+        fields.put("dedup", BuyerDedup.of(voucher.getBuyerDedup()).value());
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + tag, fields);
 
+        // 事务提交后通知所有结点加载这张秒杀券，提交前加载会读到旧数据
+        Long voucherId = voucher.getId();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                seckillVoucherCache.publishChange(voucherId);
+            }
+        });
     }
 }
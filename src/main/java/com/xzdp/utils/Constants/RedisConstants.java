@@ -6,8 +6,14 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    //请求时token续期后的有效期，分钟；本地记录过期时间，剩余有效期不到一半时才执行 EXPIRE
+    public static final Long LOGIN_USER_REFRESH_TTL = 1000L;
+    //退出登录的广播频道，所有结点删除本地缓存的token会话
+    public static final String LOGIN_LOGOUT_CHANNEL = "login:logout";
 
     public static final Long CACHE_NULL_TTL = 2L;
+    //缓存未命中时，等待其他线程或结点重建缓存的最长时间，毫秒
+    public static final long CACHE_LOAD_WAIT_MILLIS = 3000L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
@@ -15,16 +21,96 @@ public class RedisConstants {
 
 
     public static final String CACHE_SHOPTYPE_KEY = "cache:shopType";
+    //注解缓存(@XzCached)使用的key和有效期，注解中只能使用基本类型的常量
+    public static final String CACHE_SHOPTYPE_LIST_KEY = "cache:shopType:list";
+    public static final long CACHE_SHOPTYPE_LIST_TTL = 60L;
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+    public static final long CACHE_USER_INFO_TTL = 30L;
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:shop:voucher:";
+    public static final long CACHE_SHOP_VOUCHER_TTL = 60L;
+
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    //本地一级缓存失效的广播频道
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    //缓存写入使用二进制格式；读取时自动识别json和二进制，所有结点都升级后再打开
+    public static final boolean CACHE_WRITE_BINARY = false;
+    //缓存有效期的抖动比例，实际有效期在 [ttl, ttl * (1 + jitter)) 之间，防止缓存雪崩
+    public static final double CACHE_TTL_JITTER = 0.1;
+    //true 按key的哈希打散过期时间，同一个key位置固定；false 随机打散
+    public static final boolean CACHE_EXPIRY_SPREAD_HASH = true;
+    //预热时把逻辑过期时间均匀分布在 [ttl, ttl * (1 + spread)) 之间
+    public static final double CACHE_WARMUP_SPREAD = 0.5;
+    //预热的互斥锁，不主动释放，有效期内重启的结点不会重复预热，分钟
+    public static final String LOCK_CACHE_WARMUP_KEY = "lock:cache:warmup";
+    public static final long LOCK_CACHE_WARMUP_TTL = 10L;
+
+    //布隆过滤器，防止缓存穿透
+    public static final String BLOOM_KEY = "bloom:";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+    public static final String BLOOM_SHOP = "shop";
+    public static final String BLOOM_BLOG = "blog";
+    public static final String BLOOM_USER = "user";
+    public static final long BLOOM_EXPECTED_INSERTIONS = 1000000L;
+    public static final double BLOOM_FPP = 0.01;
+    public static final long BLOOM_SYNC_MINUTES = 5L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    //fencing token：锁的token计数器、缓存最后一次写入的token，后面拼接 {锁或缓存的key}，与原key在同一个slot
+    public static final String LOCK_FENCE_KEY = "lock:fence:";
+    public static final String CACHE_FENCE_KEY = "cache:fence:";
 
     public static final String VOUCHER_ORDER = "voucher:order:";
+    //全局id每次从Redis预领的序列号个数，0 表示每个id都执行一次 INCR；剩余比例低于该值时异步预领下一段
+    public static final long ID_SEGMENT_STEP = 1000L;
+    public static final double ID_SEGMENT_PREFETCH = 0.2;
     public static final String LOCK_VOUCHER_ORDER = "lock:voucher:order:";
+    //可重入锁释放时的通知频道前缀；不指定过期时间时，看门狗每隔 1/3 过期时间续期一次，毫秒
+    public static final String LOCK_CHANNEL_PREFIX = "lock:channel:";
+    public static final long LOCK_WATCHDOG_TIMEOUT = 30000L;
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String SECKILL_ORDER_KEY = "seckill:order:";
-    //redis的消息队列
+    //秒杀券的配置，hash结构，lua脚本从中读取开始/结束时间(毫秒)和一人一单的去重方式
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    //秒杀券变更的广播频道，各结点刷新本地的秒杀券信息；全量刷新的间隔，秒
+    public static final String SECKILL_VOUCHER_CHANNEL = "seckill:voucher:changed";
+    public static final long SECKILL_VOUCHER_REFRESH_SECONDS = 60L;
+    //使用bitmap去重时，已下单的用户；按用户id分片，每片 2^SECKILL_BUYER_SHARD_BITS 位(1MB)
+    public static final String SECKILL_BUYER_KEY = "seckill:buyer:";
+    public static final int SECKILL_BUYER_SHARD_BITS = 23;
+    //秒杀券售罄的广播频道
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    //每个结点从Redis库存中预领的库存块大小；0 表示不预领，每个请求都扣减Redis的库存
+    public static final int SECKILL_STOCK_LEASE = 0;
+    //库存对账上一次的结果 seckill:reconcile:{voucherId}，hash结构；对账的间隔，秒
+    public static final String SECKILL_RECONCILE_KEY = "seckill:reconcile:";
+    public static final long SECKILL_RECONCILE_INTERVAL = 60L;
+    //结束超过该时间的秒杀券不再对账，小时
+    public static final long SECKILL_RECONCILE_RETAIN_HOURS = 24L;
+    //多个结点只有一个执行对账，对账期间由看门狗续期，结束后释放
+    public static final String LOCK_SECKILL_RECONCILE_KEY = "lock:seckill:reconcile";
+    //redis的消息队列，每张秒杀券一个 stream.orders:{voucherId}，与库存key在同一个slot
+    //不带 hash tag 的 stream.orders 是升级前所有秒杀券共用的队列，只处理剩下的消息
     public static final String QUEUENAME = "stream.orders";
+    //结束超过该时间的秒杀券不再认领pending消息，小时
+    public static final long STREAM_RETAIN_HOURS = 24L;
+    //消息队列的消费者组；每个结点按用户id分区处理订单的线程数，每次最多读取的消息数
+    public static final String STREAM_GROUP = "g1";
+    public static final int STREAM_PARTITIONS = 4;
+    public static final int STREAM_BATCH_SIZE = 50;
+    //死信队列，超过最大投递次数的消息转移到这里，等待人工处理；死信队列的最大长度
+    public static final String STREAM_DLQ = "stream.orders.dlq";
+    public static final long STREAM_DLQ_MAX_LEN = 10000L;
+    //pending消息空闲超过该时间才会被其他消费者认领，毫秒；最大投递次数
+    public static final long STREAM_RECLAIM_IDLE = 60000L;
+    public static final int STREAM_MAX_DELIVERIES = 5;
+    //认领pending消息和裁剪消息队列的间隔，秒
+    public static final long STREAM_RECLAIM_INTERVAL = 30L;
+
+    //集群限流的滑动窗口 limit:路径:用户或IP
+    public static final String RATE_LIMIT_KEY = "limit:";
 
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FOLLOW_KEY = "follow:";
@@ -0,0 +1,207 @@
+package com.xzdp.utils.Interceptor;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.json.JSONUtil;
+import com.xzdp.dto.Result;
+import com.xzdp.dto.UserDTO;
+import com.xzdp.utils.RateLimit.RateLimitRule;
+import com.xzdp.utils.RateLimit.TokenBucket;
+import com.xzdp.utils.Redis.Script.LuaScript;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import com.xzdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.xzdp.utils.Constants.RedisConstants.RATE_LIMIT_KEY;
+
+// 配置拦截器
+// 该拦截器 拦截需要限流的接口，在 MvcConfig 中注册成Bean，并配置每个接口的规则
+// 位于登录拦截器之后，可以按用户限流；按顺序检查 结点级令牌桶 -> 用户本地令牌桶 -> Redis滑动窗口，前面拒绝的不再访问Redis
+@Slf4j
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    /**
+     * 本地令牌桶空闲超过该时间后回收，分钟
+     */
+    private static final long BUCKET_IDLE_MINUTES = 5L;
+
+    /**
+     * 拒绝时返回的内容，提前序列化好
+     */
+    private static final byte[] REJECTED_BODY =
+            JSONUtil.toJsonStr(Result.fail("请求太频繁，请稍后再试！")).getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private RedisScripts redisScripts;
+
+    private final List<Route> routes;
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+
+    private final ScheduledExecutorService CLEAN_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("rate-limit-", true));
+
+    public RateLimitInterceptor(RateLimitRule... rules) {
+        Route[] array = new Route[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            array[i] = new Route(rules[i]);
+        }
+        this.routes = Collections.unmodifiableList(Arrays.asList(array));
+    }
+
+    @PostConstruct
+    private void init() {
+        CLEAN_EXECUTOR.scheduleWithFixedDelay(this::clean, BUCKET_IDLE_MINUTES, BUCKET_IDLE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        CLEAN_EXECUTOR.shutdownNow();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //1. 找到接口的规则，没有规则直接放行
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        Route route = match(path);
+        if (route == null) {
+            return true;
+        }
+        RateLimitRule rule = route.rule;
+
+        //2. 结点级令牌桶
+        if (route.bucket != null && !route.bucket.tryAcquire()) {
+            return reject(response, route.rejectedRoute);
+        }
+
+        //3. 用户(或IP)在本结点的令牌桶
+        String id = limitKey(rule, request);
+        if (rule.getLocalRate() > 0) {
+            TokenBucket bucket = route.buckets.computeIfAbsent(id,
+                    k -> new TokenBucket(rule.getLocalRate(), rule.getLocalBurst()));
+            if (!bucket.tryAcquire()) {
+                return reject(response, route.rejectedLocal);
+            }
+        }
+
+        //4. Redis滑动窗口，Redis不可用时放行，只依靠本地限流
+        if (rule.getClusterLimit() > 0) {
+            try {
+                Long ok = redisScripts.execute(LuaScript.RATE_LIMIT,
+                        Collections.singletonList(RATE_LIMIT_KEY + rule.getPattern() + ":" + id),
+                        System.currentTimeMillis(), rule.getClusterWindowMillis(), rule.getClusterLimit(),
+                        IdUtil.fastSimpleUUID());
+                if (ok != null && ok == 0) {
+                    return reject(response, route.rejectedCluster);
+                }
+            } catch (Exception e) {
+                log.warn("集群限流失败，放行：{}", e.getMessage());
+            }
+        }
+
+        //放行
+        route.passed.increment();
+        return true;
+    }
+
+    private Route match(String path) {
+        for (Route route : routes) {
+            if (matcher.match(route.rule.getPattern(), path)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 限流的维度：登录用户id，或者客户端IP
+     *  客户端IP使用连接的对端地址，不读取 X-Forwarded-For 等请求头，防止伪造IP绕过限流
+     *  部署在反向代理之后时，配置 server.forward-headers-strategy=native，
+     *  由 Tomcat 的 RemoteIpValve 只信任内网代理转发的请求头，getRemoteAddr 即为真实IP
+     */
+    private static String limitKey(RateLimitRule rule, HttpServletRequest request) {
+        if (rule.getLimitKey() == RateLimitRule.LimitKey.USER) {
+            UserDTO user = UserHolder.getUser();
+            if (user != null) {
+                return "u" + user.getId();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * 拒绝请求，返回429，不进入业务逻辑
+     */
+    private static boolean reject(HttpServletResponse response, LongAdder counter) throws Exception {
+        counter.increment();
+        response.setStatus(429);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getOutputStream().write(REJECTED_BODY);
+        return false;
+    }
+
+    /**
+     * 回收空闲的令牌桶，防止用户或IP太多时占用内存
+     */
+    private void clean() {
+        long idle = TimeUnit.MINUTES.toNanos(BUCKET_IDLE_MINUTES);
+        for (Route route : routes) {
+            route.buckets.values().removeIf(bucket -> bucket.isIdle(idle));
+        }
+    }
+
+    /**
+     * 运行指标
+     * @return 接口 -> {passed, rejectedRoute, rejectedLocal, rejectedCluster, buckets}
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        for (Route route : routes) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("passed", route.passed.sum());
+            item.put("rejectedRoute", route.rejectedRoute.sum());
+            item.put("rejectedLocal", route.rejectedLocal.sum());
+            item.put("rejectedCluster", route.rejectedCluster.sum());
+            item.put("buckets", route.buckets.size());
+            res.put(route.rule.getPattern(), item);
+        }
+        return res;
+    }
+
+    /**
+     * 一个接口的规则、令牌桶和计数
+     */
+    private static class Route {
+        private final RateLimitRule rule;
+        private final TokenBucket bucket;
+        private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        private final LongAdder passed = new LongAdder();
+        private final LongAdder rejectedRoute = new LongAdder();
+        private final LongAdder rejectedLocal = new LongAdder();
+        private final LongAdder rejectedCluster = new LongAdder();
+
+        private Route(RateLimitRule rule) {
+            this.rule = rule;
+            this.bucket = rule.getRouteRate() > 0 ? new TokenBucket(rule.getRouteRate(), rule.getRouteBurst()) : null;
+        }
+    }
+}
@@ -1,20 +1,16 @@
 package com.xzdp.utils.Interceptor;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.xzdp.dto.UserDTO;
+import com.xzdp.utils.Redis.Cache.TokenSessionCache;
 import com.xzdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
-import static com.xzdp.utils.Constants.RedisConstants.LOGIN_USER_KEY;
 import static com.xzdp.utils.Constants.SystemConstants.TOKEN_HEADER;
 
 // 配置拦截器
@@ -32,8 +28,12 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
 
     //key 在 MVCConfig 中配置 了bean，可以在这里自动注入
     // 说明这个 拦击器已经在容器内部了，可以使用自动注入的方式，获取spring容器中的bean
+//    @Autowired
+//    private StringRedisTemplate stringRedisTemplate;
+
+    // 结点内的token会话缓存，本地命中时不访问Redis；只在剩余有效期不到一半时才续期
     @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    private TokenSessionCache tokenSessionCache;
 
 
     //获取用户信息，并存入 ThreadLocal
@@ -48,28 +48,23 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
            // 如果token为空，即没有登陆，直接放行
             return true;
         }
-        //1.2 根据key 去redis中获取对象
-        String tokenKey = LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(tokenKey);
-
+        //1.2 根据token获取用户，先查本地会话缓存，未命中再去redis中获取；同时按需刷新token有效期
+//        String tokenKey = LOGIN_USER_KEY + token;
+//        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(tokenKey);
+        UserDTO userDTO = tokenSessionCache.get(token);
 
         //2. 判断用户是否存在
         //2.1 用户不存在，即没有登陆，直接放行
-        if (userMap.isEmpty()) {
+        if (userDTO == null) {
             return true;
         }
 
-        // 2.2 将查询的map类型的user 转换成 UserDTO类型
-        // tool 使用工具类将Map转换成UserDTO类型
-        // false 表示不忽略异常
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-
-        //2.3 key 用户存在，保存用户到 ThreadLocal 供给每个线程使用
+        //2.2 key 用户存在，保存用户到 ThreadLocal 供给每个线程使用
         UserHolder.saveUser(userDTO);
 
-        //3.刷新token有效期 30分钟
+        //3.刷新token有效期，在 TokenSessionCache 中剩余有效期不到一半时才刷新
 //        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
-        stringRedisTemplate.expire(tokenKey, 1000, TimeUnit.MINUTES);
+//        stringRedisTemplate.expire(tokenKey, 1000, TimeUnit.MINUTES);
         //log.info("token 令牌刷新成功！");
 
         //放行
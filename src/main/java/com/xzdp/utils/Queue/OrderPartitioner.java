@@ -0,0 +1,159 @@
+package com.xzdp.utils.Queue;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * 按key分区的任务处理
+ *
+ *  多个消费者线程各自读取消息时，同一个用户的两个订单可能被两个线程同时处理，只能对用户加分布式锁
+ *  1. 每个分区一个线程和一个有界队列；任务按key的hash分配到分区，同一个key的任务总是由同一个线程按顺序处理
+ *  2. 分区线程一次取出一批任务，交给处理器批量处理
+ *  3. 分区队列满时 dispatch 阻塞，读取消息的线程随之变慢(背压)
+ *
+ *  处理器需要自己处理异常；抛出的异常只打印日志，这一批任务不会重试
+ *
+ * @param <T> 任务
+ */
+@Slf4j
+public class OrderPartitioner<T> {
+
+    private final List<BlockingQueue<T>> queues;
+
+    private final LongAdder[] handled;
+
+    private final ToLongFunction<T> keyFunction;
+
+    private final Consumer<List<T>> handler;
+
+    private final int maxBatch;
+
+    private final ExecutorService executor;
+
+    /**
+     * @param name 线程名前缀
+     * @param partitions 分区数
+     * @param capacity 每个分区队列的容量
+     * @param maxBatch 每批最多处理的任务数
+     * @param keyFunction 任务的分区key，例如用户id
+     * @param handler 处理一批任务，同一个分区的任务在同一个线程中按顺序处理
+     */
+    public OrderPartitioner(String name, int partitions, int capacity, int maxBatch,
+                            ToLongFunction<T> keyFunction, Consumer<List<T>> handler) {
+        if (partitions <= 0 || capacity <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("分区数、队列容量和批大小必须大于0");
+        }
+        this.queues = new ArrayList<>(partitions);
+        this.handled = new LongAdder[partitions];
+        for (int i = 0; i < partitions; i++) {
+            queues.add(new ArrayBlockingQueue<>(capacity));
+            handled[i] = new LongAdder();
+        }
+        this.keyFunction = keyFunction;
+        this.handler = handler;
+        this.maxBatch = maxBatch;
+        this.executor = Executors.newFixedThreadPool(partitions, new NamedThreadFactory(name, true));
+        for (int i = 0; i < partitions; i++) {
+            int partition = i;
+            executor.execute(() -> work(partition));
+        }
+    }
+
+    /**
+     * key 所在的分区；连续的用户id打散到各个分区
+     * @param key 分区key
+     * @param partitions 分区数
+     * @return [0, partitions)
+     */
+    public static int partition(long key, int partitions) {
+        return Math.floorMod(Long.hashCode(key * 0x9E3779B97F4A7C15L), partitions);
+    }
+
+    /**
+     * 把任务交给所在分区的线程，分区队列满时等待
+     * @param task 任务
+     * @throws InterruptedException 等待时被中断
+     */
+    public void dispatch(T task) throws InterruptedException {
+        queues.get(partition(keyFunction.applyAsLong(task), queues.size())).put(task);
+    }
+
+    /**
+     * 按顺序分配一批任务，同一个key的任务保持原来的顺序
+     * @param tasks 任务
+     * @throws InterruptedException 等待时被中断
+     */
+    public void dispatch(List<T> tasks) throws InterruptedException {
+        for (T task : tasks) {
+            dispatch(task);
+        }
+    }
+
+    /**
+     * 分区线程：取出一批任务并处理
+     */
+    private void work(int partition) {
+        BlockingQueue<T> queue = queues.get(partition);
+        List<T> batch = new ArrayList<>(maxBatch);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                T first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                handler.accept(batch);
+                handled[partition].add(batch.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("分区 {} 处理任务失败！", partition, e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 停止所有分区线程，队列中没有处理的任务被丢弃
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 分区数
+     */
+    public int partitions() {
+        return queues.size();
+    }
+
+    /**
+     * 运行指标
+     * @return 每个分区的积压和已处理的任务数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        for (int i = 0; i < queues.size(); i++) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("size", queues.get(i).size());
+            item.put("handled", handled[i].sum());
+            res.put(String.valueOf(i), item);
+        }
+        return res;
+    }
+}
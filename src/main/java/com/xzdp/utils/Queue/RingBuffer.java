@@ -0,0 +1,196 @@
+package com.xzdp.utils.Queue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 多生产者、单消费者的无锁环形队列
+ *
+ *  ArrayBlockingQueue 的生产者和消费者共用一把锁，每次入队都要竞争；队列满时 add 直接抛异常
+ *  1. 槽位在创建时全部分配好，生产者只修改槽位中对象的字段，入队不创建对象
+ *  2. 生产者用CAS领取序号，每个序号对应一个槽位，同一时刻只有一个生产者写这个槽位
+ *  3. 生产者写完后发布序号；消费者按顺序读取已发布的槽位，一次最多读取一批
+ *  4. 消费者处理完一批后才推进消费进度，这些槽位才能被生产者重新使用
+ *  5. 没有空位时，生产者按等待策略等待一段时间，超时返回 -1，由调用方决定如何处理(背压)
+ *
+ *  领取序号和发布序号分开：生产者在槽位中直接填写对象，不需要先创建再入队
+ *  领取之后必须尽快发布，消费者会按顺序等待这个序号；可能失败或者较慢的操作(访问Redis等)要在领取之前完成
+ *
+ * @param <T> 槽位中的对象，必须是可修改的
+ */
+public class RingBuffer<T> {
+
+    private final Object[] slots;
+
+    private final int mask;
+
+    /**
+     * 每个槽位已经发布的序号，消费者据此判断槽位是否可读
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * 最后一个被领取的序号
+     */
+    private final AtomicLong claimed = new AtomicLong(-1);
+
+    /**
+     * 最后一个被消费的序号，只有消费者线程修改
+     */
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    private final WaitStrategy waitStrategy;
+
+    private final LongAdder full = new LongAdder();
+
+    /**
+     * @param capacity 容量，必须是2的幂
+     * @param factory 创建槽位中的对象
+     * @param waitStrategy 等待策略
+     */
+    public RingBuffer(int capacity, Supplier<T> factory, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("容量必须是2的幂：" + capacity);
+        }
+        this.slots = new Object[capacity];
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = factory.get();
+            published.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * 领取一个序号，没有空位时不等待
+     * @return 序号；没有空位时返回 -1
+     */
+    public long tryNext() {
+        while (true) {
+            long current = claimed.get();
+            long next = current + 1;
+            // 领取之后，未消费的槽位不能超过容量
+            if (next - consumed.get() > slots.length) {
+                return -1;
+            }
+            if (claimed.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 领取一个序号，没有空位时按等待策略等待
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
+     * @return 序号；超时返回 -1
+     */
+    public long next(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int counter = 0;
+        while (true) {
+            long seq = tryNext();
+            if (seq >= 0) {
+                return seq;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                full.increment();
+                return -1;
+            }
+            counter = waitStrategy.idle(counter);
+        }
+    }
+
+    /**
+     * 领取的序号对应的槽位，发布之前由领取者独占
+     * @param seq 序号
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long seq) {
+        return (T) slots[(int) seq & mask];
+    }
+
+    /**
+     * 发布序号，之后消费者可以读取这个槽位；领取的序号必须发布，否则消费者会一直等待
+     * @param seq 序号
+     */
+    public void publish(long seq) {
+        published.lazySet((int) seq & mask, seq);
+    }
+
+    /**
+     * 读取一批已经发布的槽位，只能由消费者线程调用
+     *  handler 返回之后槽位会被生产者重用，需要的数据要在 handler 中复制出来
+     * @param handler 处理一个槽位
+     * @param max 最多读取的个数
+     * @return 读取的个数
+     */
+    public int drain(Consumer<T> handler, int max) {
+        long start = consumed.get() + 1;
+        long seq = start;
+        while (seq - start < max && published.get((int) seq & mask) == seq) {
+            handler.accept(get(seq));
+            seq++;
+        }
+        int n = (int) (seq - start);
+        if (n > 0) {
+            // 推进消费进度，释放槽位
+            consumed.lazySet(seq - 1);
+        }
+        return n;
+    }
+
+    /**
+     * 读取一批，没有数据时按等待策略等待
+     * @param handler 处理一个槽位
+     * @param max 最多读取的个数
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
+     * @return 读取的个数；超时返回0
+     */
+    public int drain(Consumer<T> handler, int max, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int counter = 0;
+        while (true) {
+            int n = drain(handler, max);
+            if (n > 0 || System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                return n;
+            }
+            counter = waitStrategy.idle(counter);
+        }
+    }
+
+    /**
+     * 容量
+     */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * 已领取、还没有消费的槽位数
+     */
+    public long size() {
+        return claimed.get() - consumed.get();
+    }
+
+    /**
+     * 运行指标
+     * @return 容量、积压和满队列次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("capacity", slots.length);
+        res.put("size", size());
+        res.put("published", claimed.get() + 1);
+        res.put("full", full.sum());
+        return res;
+    }
+}
@@ -0,0 +1,54 @@
+package com.xzdp.utils.Queue;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 环形队列的等待策略，消费者没有数据、或生产者没有空位时调用
+ *
+ *  BUSY_SPIN：一直自旋，延迟最低，占满一个CPU核
+ *  YIELDING：自旋一段时间后让出CPU
+ *  SLEEPING：自旋 -> 让出CPU -> 短暂休眠，空闲时几乎不占CPU，延迟在毫秒以内
+ */
+public enum WaitStrategy {
+
+    BUSY_SPIN {
+        @Override
+        public int idle(int counter) {
+            // java 8 没有 Thread.onSpinWait，直接重试
+            return counter + 1;
+        }
+    },
+
+    YIELDING {
+        @Override
+        public int idle(int counter) {
+            if (counter >= SPIN_TRIES) {
+                Thread.yield();
+            }
+            return counter + 1;
+        }
+    },
+
+    SLEEPING {
+        @Override
+        public int idle(int counter) {
+            if (counter >= SPIN_TRIES + YIELD_TRIES) {
+                LockSupport.parkNanos(SLEEP_NANOS);
+            } else if (counter >= SPIN_TRIES) {
+                Thread.yield();
+            }
+            return counter + 1;
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long SLEEP_NANOS = 100_000L;
+
+    /**
+     * 等待一次
+     * @param counter 连续等待的次数，从0开始，有数据后重置为0
+     * @return 新的等待次数
+     */
+    public abstract int idle(int counter);
+}
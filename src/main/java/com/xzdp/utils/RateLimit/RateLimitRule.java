@@ -0,0 +1,89 @@
+package com.xzdp.utils.RateLimit;
+
+import lombok.Getter;
+
+/**
+ * 一个接口的限流规则
+ *
+ *  1. 结点级：整个接口在本结点的令牌桶，超过结点的处理能力时直接拒绝
+ *  2. 本地：每个用户(或IP)在本结点的令牌桶，拦住单个用户的突发请求，不访问Redis
+ *  3. 集群：每个用户(或IP)在Redis中的滑动窗口，限制在所有结点上的总请求数
+ *  速率或上限为0的一级不启用
+ *
+ *  例如：RateLimitRule.of("/voucher-order/seckill/*", LimitKey.USER).route(2000, 4000).local(5, 10).cluster(20, 10000)
+ */
+@Getter
+public class RateLimitRule {
+
+    /**
+     * 限流的维度
+     */
+    public enum LimitKey {
+        /**
+         * 按登录用户，未登录时按IP
+         */
+        USER,
+        /**
+         * 按客户端IP
+         */
+        IP
+    }
+
+    /**
+     * 接口路径，Ant风格
+     */
+    private final String pattern;
+
+    private final LimitKey limitKey;
+
+    private double routeRate;
+    private int routeBurst;
+
+    private double localRate;
+    private int localBurst;
+
+    private int clusterLimit;
+    private long clusterWindowMillis;
+
+    private RateLimitRule(String pattern, LimitKey limitKey) {
+        this.pattern = pattern;
+        this.limitKey = limitKey;
+    }
+
+    public static RateLimitRule of(String pattern, LimitKey limitKey) {
+        return new RateLimitRule(pattern, limitKey);
+    }
+
+    /**
+     * 整个接口在本结点的令牌桶
+     * @param permitsPerSecond 每秒请求数
+     * @param burst 突发请求数
+     */
+    public RateLimitRule route(double permitsPerSecond, int burst) {
+        this.routeRate = permitsPerSecond;
+        this.routeBurst = burst;
+        return this;
+    }
+
+    /**
+     * 每个用户(或IP)在本结点的令牌桶
+     * @param permitsPerSecond 每秒请求数
+     * @param burst 突发请求数
+     */
+    public RateLimitRule local(double permitsPerSecond, int burst) {
+        this.localRate = permitsPerSecond;
+        this.localBurst = burst;
+        return this;
+    }
+
+    /**
+     * 每个用户(或IP)在所有结点上的滑动窗口
+     * @param limit 窗口内最多的请求数
+     * @param windowMillis 窗口长度，毫秒
+     */
+    public RateLimitRule cluster(int limit, long windowMillis) {
+        this.clusterLimit = limit;
+        this.clusterWindowMillis = windowMillis;
+        return this;
+    }
+}
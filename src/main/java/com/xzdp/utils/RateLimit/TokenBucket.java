@@ -0,0 +1,58 @@
+package com.xzdp.utils.RateLimit;
+
+/**
+ * 本地令牌桶
+ *
+ *  按固定速率生成令牌，桶满后不再增加；每个请求消耗一个令牌，没有令牌时拒绝
+ *  不使用定时任务补充令牌，每次获取时按距离上次的时间计算，空闲的桶没有开销
+ */
+public class TokenBucket {
+
+    /**
+     * 每纳秒生成的令牌数
+     */
+    private final double ratePerNanos;
+
+    /**
+     * 桶的容量，允许的突发请求数
+     */
+    private final double capacity;
+
+    private double tokens;
+
+    private long lastNanos;
+
+    /**
+     * @param permitsPerSecond 每秒生成的令牌数
+     * @param burst 桶的容量
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.ratePerNanos = permitsPerSecond / 1e9;
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastNanos = System.nanoTime();
+    }
+
+    /**
+     * 获取一个令牌
+     * @return false 表示没有令牌
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastNanos) * ratePerNanos);
+        lastNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * 空闲超过指定时间，可以回收；空闲时间足够长时桶已经装满，回收后重新创建没有区别
+     * @param idleNanos 空闲时间，纳秒
+     */
+    public synchronized boolean isIdle(long idleNanos) {
+        return System.nanoTime() - lastNanos >= idleNanos;
+    }
+}
@@ -0,0 +1,209 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 布隆过滤器，数据保存在Redis的bitmap中，本地保存一份镜像
+ *
+ *  1. 判断时只查本地镜像，不访问Redis
+ *  2. 写入时同时修改本地镜像和Redis的bitmap(由 BloomFilterManager 负责写Redis和广播)
+ *  3. 本地位的编号与Redis的 SETBIT 一致：第n位在第 n/8 个字节，从字节的最高位开始
+ *     这样本地镜像和Redis的bitmap可以直接按字节互相转换
+ *
+ *  判断结果为false，说明一定不存在；结果为true，可能存在(有误判率)
+ */
+public class BloomFilter {
+
+    /**
+     * 过滤器名称
+     */
+    @Getter
+    private final String name;
+
+    /**
+     * Redis中bitmap的键
+     */
+    @Getter
+    private final String redisKey;
+
+    /**
+     * 位数组的长度
+     */
+    @Getter
+    private final long bitSize;
+
+    /**
+     * 哈希函数的个数
+     */
+    @Getter
+    private final int hashCount;
+
+    /**
+     * 本地镜像，每个long保存64位
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * 写入的元素个数(近似值，重复写入也会计数)
+     */
+    private final LongAdder inserted = new LongAdder();
+
+    /**
+     * 被判定为一定不存在而拦截的次数
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * 根据预计元素个数和期望误判率，计算位数组长度和哈希函数个数
+     *  m = -n * ln(p) / (ln2)^2
+     *  k = m / n * ln2
+     *
+     * @param name 过滤器名称
+     * @param redisKey Redis中bitmap的键
+     * @param expectedInsertions 预计元素个数
+     * @param fpp 期望误判率
+     */
+    public BloomFilter(String name, String redisKey, long expectedInsertions, double fpp) {
+        this.name = name;
+        this.redisKey = redisKey;
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        // 按字节对齐，方便和Redis的bitmap互相转换
+        this.bitSize = (m + 63) / 64 * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+        this.words = new AtomicLongArray((int) (bitSize / 64));
+    }
+
+    /**
+     * 计算元素对应的k个位置
+     * 使用128位murmur哈希拆成两个哈希值，用 h1 + i * h2 模拟k个哈希函数
+     *
+     * @param id 元素
+     * @return 位置数组
+     */
+    public long[] offsets(Object id) {
+        long[] hash = MurmurHash.hash128(String.valueOf(id));
+        long[] offsets = new long[hashCount];
+        long combined = hash[0];
+        for (int i = 0; i < hashCount; i++) {
+            // 保证是正数
+            offsets[i] = (combined & Long.MAX_VALUE) % bitSize;
+            combined += hash[1];
+        }
+        return offsets;
+    }
+
+    /**
+     * 判断元素是否可能存在，只访问本地镜像
+     * @param id 元素
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(Object id) {
+        for (long offset : offsets(id)) {
+            if (!getBit(offset)) {
+                rejected.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 写入本地镜像
+     * @param offsets 元素对应的位置
+     */
+    public void putLocal(long[] offsets) {
+        for (long offset : offsets) {
+            setBit(offset);
+        }
+        inserted.increment();
+    }
+
+    /**
+     * 将本地镜像转换成Redis bitmap格式的字节数组
+     * @return 字节数组
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[(int) (bitSize / 8)];
+        for (int i = 0; i < words.length(); i++) {
+            long word = words.get(i);
+            if (word == 0) {
+                continue;
+            }
+            for (int j = 0; j < 64; j++) {
+                if ((word & (1L << j)) != 0) {
+                    int n = i * 64 + j;
+                    bytes[n >>> 3] |= (byte) (0x80 >>> (n & 7));
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 将Redis中的bitmap合并到本地镜像(按位或)
+     * 用于同步其他结点写入的数据
+     * @param bytes Redis中bitmap的字节数组
+     */
+    public void merge(byte[] bytes) {
+        if (bytes == null) {
+            return;
+        }
+        int len = (int) Math.min(bytes.length, bitSize / 8);
+        for (int i = 0; i < len; i++) {
+            byte b = bytes[i];
+            if (b == 0) {
+                continue;
+            }
+            for (int j = 0; j < 8; j++) {
+                if ((b & (0x80 >>> j)) != 0) {
+                    setBit(i * 8L + j);
+                }
+            }
+        }
+    }
+
+    /**
+     * 运行指标
+     *  fillRatio 位数组中1的比例
+     *  fpp 按照当前填充率估算的误判率 fillRatio^k
+     * @return 指标
+     */
+    public Map<String, Object> stats() {
+        long ones = 0;
+        for (int i = 0; i < words.length(); i++) {
+            ones += Long.bitCount(words.get(i));
+        }
+        double fillRatio = (double) ones / bitSize;
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("bitSize", bitSize);
+        res.put("bytes", bitSize / 8);
+        res.put("hashCount", hashCount);
+        res.put("inserted", inserted.sum());
+        res.put("rejected", rejected.sum());
+        res.put("fillRatio", fillRatio);
+        res.put("fpp", Math.pow(fillRatio, hashCount));
+        return res;
+    }
+
+    private boolean getBit(long offset) {
+        return (words.get((int) (offset >>> 6)) & (1L << (offset & 63))) != 0;
+    }
+
+    private void setBit(long offset) {
+        int index = (int) (offset >>> 6);
+        long mask = 1L << (offset & 63);
+        long old;
+        do {
+            old = words.get(index);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!words.compareAndSet(index, old, old | mask));
+    }
+}
@@ -0,0 +1,258 @@
+package com.xzdp.utils.Redis.Cache;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.xzdp.mapper.BlogMapper;
+import com.xzdp.mapper.ShopMapper;
+import com.xzdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.xzdp.utils.Constants.RedisConstants.*;
+
+/**
+ * 布隆过滤器管理，防止缓存穿透
+ *
+ *  1. 启动时从 tb_shop、tb_blog、tb_user 中按id游标分批读取，写入本地镜像，再合并到Redis的bitmap
+ *  2. 新增数据时调用 add，同时写本地镜像和Redis，并通过发布订阅通知其他结点
+ *  3. 定时从Redis拉取bitmap合并到本地，防止广播消息丢失
+ *  4. 按照缓存键的前缀注册过滤器，CacheClient查询前先判断id是否一定不存在
+ *
+ *  预热完成之前，所有判断都返回true(可能存在)，不会误拦正常请求
+ */
+@Slf4j
+@Component
+public class BloomFilterManager {
+
+    /**
+     * 预热时每批读取的id个数
+     */
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * 过滤器名称 -> 过滤器
+     */
+    private final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存键前缀 -> 过滤器
+     */
+    private final Map<String, BloomFilter> prefixes = new ConcurrentHashMap<>();
+
+    /**
+     * 预热是否完成
+     */
+    private volatile boolean ready = false;
+
+    /**
+     * 预热和定时同步使用的线程
+     */
+    private final ScheduledExecutorService BLOOM_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    private void init() {
+        //1. 创建过滤器
+        filters.put(BLOOM_SHOP, newFilter(BLOOM_SHOP));
+        filters.put(BLOOM_BLOG, newFilter(BLOOM_BLOG));
+        filters.put(BLOOM_USER, newFilter(BLOOM_USER));
+
+        //2. 注册缓存前缀
+        register(CACHE_SHOP_KEY, BLOOM_SHOP);
+        register(CACHE_SHOP_LOGIC_KEY, BLOOM_SHOP);
+        register(CACHE_USER_KEY, BLOOM_USER);
+
+        //3. 订阅其他结点的新增消息 name:id
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.indexOf(':');
+            BloomFilter filter = filters.get(body.substring(0, index));
+            if (filter != null) {
+                filter.putLocal(filter.offsets(body.substring(index + 1)));
+            }
+        }, new ChannelTopic(BLOOM_ADD_CHANNEL));
+
+        //4. 异步预热，不阻塞启动；之后定时同步
+        BLOOM_EXECUTOR.execute(this::seedAll);
+        BLOOM_EXECUTOR.scheduleWithFixedDelay(this::syncAll, BLOOM_SYNC_MINUTES, BLOOM_SYNC_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        BLOOM_EXECUTOR.shutdownNow();
+    }
+
+    private BloomFilter newFilter(String name) {
+        return new BloomFilter(name, BLOOM_KEY + name, BLOOM_EXPECTED_INSERTIONS, BLOOM_FPP);
+    }
+
+    /**
+     * 将缓存键前缀和过滤器关联
+     * @param prefix 缓存键前缀
+     * @param name 过滤器名称
+     */
+    public void register(String prefix, String name) {
+        BloomFilter filter = filters.get(name);
+        if (filter == null) {
+            throw new IllegalArgumentException("布隆过滤器不存在：" + name);
+        }
+        prefixes.put(prefix, filter);
+    }
+
+    /**
+     * 根据缓存键前缀判断id是否可能存在
+     * 前缀没有注册过滤器，或者预热未完成，都返回true
+     * @param prefix 缓存键前缀
+     * @param id id
+     * @return false 表示一定不存在
+     */
+    public boolean mightContainByPrefix(String prefix, Object id) {
+        BloomFilter filter = prefixes.get(prefix);
+        return filter == null || !ready || filter.mightContain(id);
+    }
+
+    /**
+     * 根据过滤器名称判断id是否可能存在
+     * @param name 过滤器名称
+     * @param id id
+     * @return false 表示一定不存在
+     */
+    public boolean mightContain(String name, Object id) {
+        BloomFilter filter = filters.get(name);
+        return filter == null || !ready || filter.mightContain(id);
+    }
+
+    /**
+     * 新增数据后调用，写入本地镜像和Redis，并通知其他结点
+     * @param name 过滤器名称
+     * @param id 新增数据的id
+     */
+    public void add(String name, Object id) {
+        BloomFilter filter = filters.get(name);
+        if (filter == null || id == null) {
+            return;
+        }
+        long[] offsets = filter.offsets(id);
+        filter.putLocal(offsets);
+        //使用管道一次性设置k个位
+        byte[] key = filter.getRedisKey().getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long offset : offsets) {
+                connection.stringCommands().setBit(key, offset, true);
+            }
+            return null;
+        });
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, name + ":" + id);
+    }
+
+    /**
+     * 所有过滤器的运行指标
+     * @return 过滤器名称 -> 指标
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("ready", ready);
+        filters.forEach((name, filter) -> res.put(name, filter.stats()));
+        return res;
+    }
+
+    /**
+     * 从数据库预热所有过滤器
+     */
+    private void seedAll() {
+        try {
+            seed(filters.get(BLOOM_SHOP), shopMapper);
+            seed(filters.get(BLOOM_BLOG), blogMapper);
+            seed(filters.get(BLOOM_USER), userMapper);
+            ready = true;
+            log.info("布隆过滤器预热完成！{}", stats());
+        } catch (Exception e) {
+            // 预热失败不拦截任何请求，等待下次重启
+            log.error("布隆过滤器预热失败！", e);
+        }
+    }
+
+    /**
+     * 按id游标分批读取，避免一次性加载整张表
+     * select id from tb where id > ? order by id limit 1000
+     *
+     * 本地镜像写完后，先写入临时键，再用 BITOP OR 合并到正式的键，不会覆盖其他结点写入的数据
+     * 最后把合并后的结果拉回本地
+     */
+    private <T> void seed(BloomFilter filter, BaseMapper<T> mapper) {
+        long lastId = 0;
+        while (true) {
+            QueryWrapper<T> wrapper = new QueryWrapper<>();
+            wrapper.select("id").gt("id", lastId).orderByAsc("id").last("limit " + SEED_BATCH_SIZE);
+            List<Object> ids = mapper.selectObjs(wrapper);
+            if (ids == null || ids.isEmpty()) {
+                break;
+            }
+            for (Object id : ids) {
+                filter.putLocal(filter.offsets(id));
+            }
+            lastId = Long.parseLong(ids.get(ids.size() - 1).toString());
+        }
+
+        byte[] key = filter.getRedisKey().getBytes(StandardCharsets.UTF_8);
+        // 临时键的 hash tag 是正式的键，两者在同一个slot，BITOP 可以在Redis集群上执行
+        byte[] tmpKey = ("{" + filter.getRedisKey() + "}:tmp:" + System.nanoTime()).getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = filter.toBytes();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.stringCommands().set(tmpKey, bytes);
+            connection.stringCommands().bitOp(RedisStringCommands.BitOperation.OR, key, key, tmpKey);
+            connection.keyCommands().del(tmpKey);
+            return null;
+        });
+        sync(filter);
+    }
+
+    private void syncAll() {
+        try {
+            filters.values().forEach(this::sync);
+        } catch (Exception e) {
+            log.error("布隆过滤器同步失败！", e);
+        }
+    }
+
+    /**
+     * 从Redis拉取bitmap，合并到本地镜像
+     */
+    private void sync(BloomFilter filter) {
+        byte[] key = filter.getRedisKey().getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = stringRedisTemplate.execute(
+                (RedisCallback<byte[]>) connection -> connection.stringCommands().get(key));
+        filter.merge(bytes);
+    }
+}
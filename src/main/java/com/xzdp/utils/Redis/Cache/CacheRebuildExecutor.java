@@ -0,0 +1,139 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池，由Spring管理，全局共享
+ *
+ *  1. 队列有界，大量key同时过期时不会堆积成千上万个任务
+ *  2. 按key去重：同一个key已经在队列中或者正在重建时，新的提交直接丢弃
+ *  3. 队列满时丢弃新任务(调用方返回旧数据即可，下次访问会再次触发)
+ *  4. 任务内部捕获异常并记录，不会被线程池吞掉
+ *  5. 统计队列深度、重建耗时、失败次数等指标
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    /**
+     * 线程数
+     */
+    private static final int POOL_SIZE = 10;
+
+    /**
+     * 队列容量
+     */
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            new NamedThreadFactory("cache-rebuild-", true),
+            //队列满了直接抛出异常，由submit统一计数并丢弃
+            new ThreadPoolExecutor.AbortPolicy());
+
+    /**
+     * 已经提交、还没有执行完的key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * 提交重建任务
+     *
+     * @param key 被重建的缓存key，用于去重
+     * @param task 重建逻辑
+     * @return 是否提交成功；重复或者队列已满返回false
+     */
+    public boolean submit(String key, Runnable task) {
+        //1. 同一个key已经在重建中，丢弃
+        if (!pendingKeys.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        //2. 提交任务，包装上耗时统计和异常处理
+        try {
+            executor.execute(() -> run(key, task));
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            //3. 队列已满，丢弃
+            pendingKeys.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，丢弃任务：{}", key);
+            return false;
+        }
+    }
+
+    /**
+     * 判断key是否正在重建
+     * @param key 缓存key
+     * @return true 正在重建
+     */
+    public boolean isPending(String key) {
+        return pendingKeys.contains(key);
+    }
+
+    private void run(String key, Runnable task) {
+        long begin = System.nanoTime();
+        try {
+            task.run();
+            succeeded.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.error("缓存重建失败：{}", key, e);
+        } finally {
+            long cost = System.nanoTime() - begin;
+            totalNanos.add(cost);
+            maxNanos.accumulateAndGet(cost, Math::max);
+            pendingKeys.remove(key);
+        }
+    }
+
+    /**
+     * 运行指标
+     * @return 指标
+     */
+    public Map<String, Object> stats() {
+        long done = succeeded.sum() + failed.sum();
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("queueDepth", executor.getQueue().size());
+        res.put("queueCapacity", QUEUE_CAPACITY);
+        res.put("activeThreads", executor.getActiveCount());
+        res.put("pendingKeys", pendingKeys.size());
+        res.put("submitted", submitted.sum());
+        res.put("deduplicated", deduplicated.sum());
+        res.put("rejected", rejected.sum());
+        res.put("succeeded", succeeded.sum());
+        res.put("failed", failed.sum());
+        res.put("avgMillis", done == 0 ? 0D : totalNanos.sum() / 1e6 / done);
+        res.put("maxMillis", maxNanos.get() / 1e6);
+        return res;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,22 @@
+package com.xzdp.utils.Redis.Cache;
+
+/**
+ * 注解缓存的读取策略，对应 CacheClient 中的三种查询方式
+ */
+public enum CacheStrategy {
+
+    /**
+     * 缓存空值解决缓存穿透；适合一般的读接口
+     */
+    PASS_THROUGH,
+
+    /**
+     * 缓存空值 + 互斥锁解决缓存击穿；适合重建代价较高的数据
+     */
+    MUTEX,
+
+    /**
+     * 逻辑过期解决缓存击穿，过期后返回旧数据并异步重建；适合热点数据
+     */
+    LOGICAL_EXPIRE
+}
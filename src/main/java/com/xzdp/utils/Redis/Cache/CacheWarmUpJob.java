@@ -0,0 +1,110 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.xzdp.entity.Shop;
+import com.xzdp.mapper.ShopMapper;
+import com.xzdp.utils.Redis.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.xzdp.utils.Constants.RedisConstants.*;
+
+/**
+ * 店铺逻辑过期缓存的预热
+ *
+ *  原来的预热循环调用 saveShop2Redis，所有店铺的逻辑过期时间相同，到期时同时重建，数据库压力集中
+ *  这里按照店铺的顺序，把逻辑过期时间均匀地分布在 [ttl, ttl * (1 + spread)) 之间：
+ *  1. 启动时异步执行，不阻塞启动；使用Redis的 setnx 保证多个结点只有一个执行，锁不主动释放
+ *  2. 按id游标分批读取店铺
+ *  3. 第 i 个店铺的过期时间 = 开始时间 + ttl + 窗口 * i / 总数
+ */
+@Slf4j
+@Component
+public class CacheWarmUpJob {
+
+    /**
+     * 每批读取的店铺个数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final ExecutorService WARMUP_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("cache-warmup-", true));
+
+    @PostConstruct
+    private void init() {
+        WARMUP_EXECUTOR.execute(this::warmUp);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        WARMUP_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 预热店铺缓存，过期时间错开
+     * @return 写入的店铺个数；其他结点正在预热时返回0
+     */
+    public int warmUp() {
+        //1. 多个结点只有一个执行预热
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(LOCK_CACHE_WARMUP_KEY, "1", LOCK_CACHE_WARMUP_TTL, TimeUnit.MINUTES);
+        if (!BooleanUtil.isTrue(locked)) {
+            return 0;
+        }
+        try {
+            long total = shopMapper.selectCount(null);
+            if (total == 0) {
+                return 0;
+            }
+            //2. 过期时间的窗口
+            long ttl = TimeUnit.MINUTES.toMillis(CACHE_SHOP_TTL);
+            long window = (long) (ttl * CACHE_WARMUP_SPREAD);
+            LocalDateTime base = LocalDateTime.now().plus(ttl, ChronoUnit.MILLIS);
+
+            //3. 按id游标分批读取，依次安排过期时间
+            int count = 0;
+            long lastId = 0;
+            while (true) {
+                QueryWrapper<Shop> wrapper = new QueryWrapper<>();
+                wrapper.gt("id", lastId).orderByAsc("id").last("limit " + BATCH_SIZE);
+                List<Shop> shops = shopMapper.selectList(wrapper);
+                if (shops.isEmpty()) {
+                    break;
+                }
+                for (Shop shop : shops) {
+                    LocalDateTime expireTime = base.plus(window * count / total, ChronoUnit.MILLIS);
+                    cacheClient.setLogic(CACHE_SHOP_LOGIC_KEY + shop.getId(), shop, expireTime);
+                    count++;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            log.info("店铺缓存预热完成，共 {} 个，过期时间分布在 {} 分钟内", count, TimeUnit.MILLISECONDS.toMinutes(window));
+            return count;
+        } catch (Exception e) {
+            log.error("店铺缓存预热失败！", e);
+            return 0;
+        }
+    }
+}
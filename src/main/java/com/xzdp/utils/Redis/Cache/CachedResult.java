@@ -0,0 +1,44 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 方法返回 Result 时，缓存中保存的内容：只保存成功结果的 data
+ *
+ *  json解码时不知道 data 的类型，得到的是 JSONObject/JSONArray，由 resolve 按注解中的 dataType 转换
+ *  转换后的值写回 data，本地缓存中的同一个对象只转换一次
+ */
+@Data
+@NoArgsConstructor
+public class CachedResult {
+
+    private volatile Object data;
+
+    public CachedResult(Object data) {
+        this.data = data;
+    }
+
+    /**
+     * 按类型转换 data
+     * @param type data 的类型；data 是列表时为元素类型；Object.class 表示不转换
+     * @return 转换后的 data
+     */
+    public Object resolve(Class<?> type) {
+        Object value = data;
+        if (type == Object.class) {
+            return value;
+        }
+        if (value instanceof JSONArray) {
+            value = ((JSONArray) value).toList(type);
+        } else if (value instanceof JSONObject) {
+            value = ((JSONObject) value).toBean(type);
+        } else {
+            return value;
+        }
+        data = value;
+        return value;
+    }
+}
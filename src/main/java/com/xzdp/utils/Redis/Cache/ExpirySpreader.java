@@ -0,0 +1,144 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.core.date.DatePattern;
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.RandomUtil;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.xzdp.utils.Constants.RedisConstants.CACHE_EXPIRY_SPREAD_HASH;
+import static com.xzdp.utils.Constants.RedisConstants.CACHE_TTL_JITTER;
+
+/**
+ * 打散缓存的过期时间，防止缓存雪崩
+ *
+ *  同一时刻写入、有效期相同的一批key会在同一时刻过期，大量请求同时打到数据库
+ *  1. 写入时在有效期上增加一个偏移量，实际有效期在 [ttl, ttl * (1 + jitter)) 之间
+ *  2. 偏移量默认由key的哈希决定：同一批key均匀分布在窗口内，同一个key每次重建的位置不变，不会重新扎堆；
+ *     也可以改为随机偏移
+ *  3. 抖动比例可以按key的前缀单独配置，没有配置的使用默认值
+ *  4. 按分钟统计即将过期的key的个数，用于观察过期时间是否扎堆
+ */
+@Component
+public class ExpirySpreader {
+
+    /**
+     * 直方图只统计这个时间范围内的过期时间，分钟
+     */
+    private static final long HISTOGRAM_HORIZON_MINUTES = 24 * 60;
+
+    /**
+     * 前缀 -> 抖动比例
+     */
+    private final Map<String, Double> prefixJitter = new ConcurrentHashMap<>();
+
+    /**
+     * 过期时间所在的分钟 -> 写入次数
+     */
+    private final ConcurrentSkipListMap<Long, LongAdder> histogram = new ConcurrentSkipListMap<>();
+
+    /**
+     * 为某个前缀单独配置抖动比例
+     * @param prefix key的前缀
+     * @param jitter 抖动比例，0 表示不抖动
+     */
+    public void register(String prefix, double jitter) {
+        prefixJitter.put(prefix, jitter);
+    }
+
+    /**
+     * 计算打散之后的有效期
+     * @param key 缓存的key
+     * @param ttlMillis 原始有效期，毫秒
+     * @return 打散之后的有效期，毫秒
+     */
+    public long spread(String key, long ttlMillis) {
+        long window = (long) (ttlMillis * jitterOf(key));
+        if (window <= 0) {
+            return ttlMillis;
+        }
+        long offset = CACHE_EXPIRY_SPREAD_HASH
+                ? Math.floorMod(MurmurHash.hash64(key.getBytes(StandardCharsets.UTF_8)), window)
+                : RandomUtil.randomLong(window);
+        return ttlMillis + offset;
+    }
+
+    /**
+     * 匹配最长的前缀，没有匹配的使用默认值
+     */
+    private double jitterOf(String key) {
+        double jitter = CACHE_TTL_JITTER;
+        int matched = -1;
+        for (Map.Entry<String, Double> entry : prefixJitter.entrySet()) {
+            String prefix = entry.getKey();
+            if (prefix.length() > matched && key.startsWith(prefix)) {
+                matched = prefix.length();
+                jitter = entry.getValue();
+            }
+        }
+        return jitter;
+    }
+
+    /**
+     * 记录一次写入的过期时间
+     * @param expireAtMillis 过期的时间戳，毫秒
+     */
+    public void record(long expireAtMillis) {
+        long now = System.currentTimeMillis() / 60000;
+        long minute = expireAtMillis / 60000;
+        if (minute < now || minute > now + HISTOGRAM_HORIZON_MINUTES) {
+            return;
+        }
+        histogram.computeIfAbsent(minute, k -> new LongAdder()).increment();
+        //清理已经过去的分钟
+        histogram.headMap(now).clear();
+    }
+
+    /**
+     * 即将过期的key的直方图
+     *  写入时记录，同一个key被覆盖写入会重复计数，只用于观察过期时间是否扎堆
+     *  peakRatio = 最高的一分钟 / 平均每分钟，远大于1说明存在过期高峰
+     * @return 指标
+     */
+    public Map<String, Object> stats() {
+        long now = System.currentTimeMillis() / 60000;
+        ConcurrentNavigableMap<Long, LongAdder> upcoming = histogram.tailMap(now);
+
+        Map<String, Long> buckets = new LinkedHashMap<>();
+        long total = 0;
+        long peak = 0;
+        String peakMinute = null;
+        for (Map.Entry<Long, LongAdder> entry : upcoming.entrySet()) {
+            long count = entry.getValue().sum();
+            String minute = LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.getKey() * 60000), ZoneId.systemDefault())
+                    .format(DatePattern.NORM_DATETIME_MINUTE_FORMATTER);
+            buckets.put(minute, count);
+            total += count;
+            if (count > peak) {
+                peak = count;
+                peakMinute = minute;
+            }
+        }
+
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("jitter", CACHE_TTL_JITTER);
+        res.put("prefixJitter", prefixJitter);
+        res.put("mode", CACHE_EXPIRY_SPREAD_HASH ? "hash" : "random");
+        res.put("total", total);
+        res.put("peakMinute", peakMinute);
+        res.put("peakCount", peak);
+        res.put("peakRatio", buckets.isEmpty() ? 0 : (double) peak * buckets.size() / total);
+        res.put("buckets", buckets);
+        return res;
+    }
+}
@@ -0,0 +1,249 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 热点key探测
+ *
+ *  大促时少数店铺、博客的访问量占了绝大部分，这些key都落在同一个Redis结点上
+ *  1. 按比例采样访问记录，使用 count-min sketch 估算每个key在当前时间窗口内的访问次数，内存固定
+ *  2. 估算次数较大的key进入候选集，每个窗口结束时从候选集中选出 top-K
+ *  3. 进入 top-K 且超过阈值的key晋升为热点key；热度降到阈值一半以下时降级(滞后区间，避免来回抖动)
+ *  4. 晋升和降级时通知监听者，本地缓存据此维护热点key的进程内副本
+ *  5. 每个窗口结束后清空计数，只反映最近一个窗口的热度
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    /**
+     * 采样比例，每 SAMPLE_RATE 次访问记录一次
+     */
+    private static final int SAMPLE_RATE = 4;
+
+    /**
+     * 统计窗口，秒
+     */
+    private static final long WINDOW_SECONDS = 5;
+
+    /**
+     * 一个窗口内采样次数达到该值晋升为热点key，约等于 50 * 4 / 5 = 40 QPS
+     */
+    private static final long HOT_THRESHOLD = 50;
+
+    /**
+     * 采样次数达到该值才进入候选集
+     */
+    private static final long CANDIDATE_THRESHOLD = HOT_THRESHOLD / 4;
+
+    /**
+     * 候选集的最大长度
+     */
+    private static final int MAX_CANDIDATES = 1000;
+
+    /**
+     * 最多同时存在的热点key个数
+     */
+    private static final int TOP_K = 20;
+
+    /**
+     * count-min sketch 的行数和列数，列数为2的幂
+     */
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+
+    private final AtomicIntegerArray[] sketch = new AtomicIntegerArray[DEPTH];
+
+    /**
+     * 候选key -> 当前窗口内估算的采样次数
+     */
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+
+    /**
+     * 当前的热点key
+     */
+    private final Set<String> hotKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 上一个窗口的 top-K，用于监控
+     */
+    private volatile List<Map<String, Object>> topK = Collections.emptyList();
+
+    private final List<Consumer<String>> promoteListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<String>> demoteListeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder promoted = new LongAdder();
+    private final LongAdder demoted = new LongAdder();
+
+    private final ScheduledExecutorService HOTKEY_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("hot-key-", true));
+
+    public HotKeyDetector() {
+        for (int i = 0; i < DEPTH; i++) {
+            sketch[i] = new AtomicIntegerArray(WIDTH);
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        HOTKEY_EXECUTOR.scheduleWithFixedDelay(this::rotate, WINDOW_SECONDS, WINDOW_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        HOTKEY_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 注册晋升监听
+     * @param listener 参数为晋升的key
+     */
+    public void onPromote(Consumer<String> listener) {
+        promoteListeners.add(listener);
+    }
+
+    /**
+     * 注册降级监听
+     * @param listener 参数为降级的key
+     */
+    public void onDemote(Consumer<String> listener) {
+        demoteListeners.add(listener);
+    }
+
+    /**
+     * 记录一次访问，按比例采样
+     * @param key 访问的key
+     */
+    public void record(String key) {
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0) {
+            return;
+        }
+        sampled.increment();
+        //1. 每一行的计数加1，估算值取所有行的最小值
+        long hash = MurmurHash.hash64(key.getBytes(StandardCharsets.UTF_8));
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = (h1 + i * h2) & (WIDTH - 1);
+            estimate = Math.min(estimate, sketch[i].incrementAndGet(index));
+        }
+        //2. 次数较大的key进入候选集
+        if (estimate >= CANDIDATE_THRESHOLD
+                && (candidates.containsKey(key) || candidates.size() < MAX_CANDIDATES)) {
+            candidates.put(key, estimate);
+        }
+    }
+
+    /**
+     * 是否是热点key
+     * @param key 缓存的key
+     */
+    public boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    /**
+     * 窗口结束
+     *  1. 从候选集中选出 top-K
+     *  2. 超过阈值的晋升；已经是热点、但热度降到阈值一半以下的降级
+     *  3. 清空计数，进入下一个窗口
+     */
+    private void rotate() {
+        try {
+            //1. 小顶堆选出 top-K
+            PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+                heap.offer(entry);
+                if (heap.size() > TOP_K) {
+                    heap.poll();
+                }
+            }
+            List<Map.Entry<String, Long>> top = new ArrayList<>(heap);
+            top.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+            //2. 晋升
+            Set<String> keep = new HashSet<>();
+            List<Map<String, Object>> snapshot = new ArrayList<>(top.size());
+            for (Map.Entry<String, Long> entry : top) {
+                String key = entry.getKey();
+                long count = entry.getValue();
+                if (count >= HOT_THRESHOLD / 2) {
+                    keep.add(key);
+                }
+                if (count >= HOT_THRESHOLD && hotKeys.add(key)) {
+                    promoted.increment();
+                    promoteListeners.forEach(listener -> listener.accept(key));
+                }
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("key", key);
+                // 换算成窗口内的估算访问次数
+                item.put("estimate", count * SAMPLE_RATE);
+                item.put("hot", hotKeys.contains(key));
+                snapshot.add(item);
+            }
+            topK = snapshot;
+
+            //3. 降级
+            for (String key : hotKeys) {
+                if (!keep.contains(key)) {
+                    hotKeys.remove(key);
+                    demoted.increment();
+                    demoteListeners.forEach(listener -> listener.accept(key));
+                }
+            }
+        } catch (Exception e) {
+            log.error("热点key探测失败！", e);
+        } finally {
+            //4. 清空计数
+            candidates.clear();
+            for (AtomicIntegerArray row : sketch) {
+                for (int i = 0; i < WIDTH; i++) {
+                    row.set(i, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * 运行指标
+     * @return 上一个窗口的 top-K 和当前的热点key
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("windowSeconds", WINDOW_SECONDS);
+        res.put("sampleRate", SAMPLE_RATE);
+        res.put("threshold", HOT_THRESHOLD * SAMPLE_RATE);
+        res.put("sampled", sampled.sum());
+        res.put("promoted", promoted.sum());
+        res.put("demoted", demoted.sum());
+        res.put("hotKeys", new ArrayList<>(hotKeys));
+        res.put("topK", topK);
+        return res;
+    }
+}
@@ -0,0 +1,239 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.xzdp.utils.Constants.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内的一级缓存(L1)，放在Redis缓存的前面
+ *
+ *  1. 容量有上限，超出后按照LRU淘汰
+ *  2. 每个条目有固定的存活时间，到期自动失效
+ *  3. 单个条目的大小(序列化后的长度)超过上限时不进入本地缓存，避免大对象占满堆内存
+ *  4. 某个结点删除或者更新缓存时，通过Redis的发布订阅通知所有结点删除本地的条目
+ *  5. 按照键的前缀统计命中和未命中的次数
+ *  6. 热点key额外保存一份进程内副本，不参与LRU淘汰，存活时间更长；热度下降后删除
+ */
+@Slf4j
+@Component
+public class LocalCache {
+
+    /**
+     * 本地缓存最多保存的条目数
+     */
+    private static final int MAX_SIZE = 10000;
+
+    /**
+     * 本地缓存的存活时间，毫秒
+     * 时间较短，即使广播消息丢失，脏数据也只会存在很短的时间
+     */
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * 单个条目允许的最大权重，使用Redis中json字符串的长度衡量
+     */
+    private static final int MAX_ENTRY_WEIGHT = 64 * 1024;
+
+    /**
+     * 热点key副本的存活时间，毫秒
+     */
+    private static final long HOT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * 热点key的副本
+     */
+    private static class Replica {
+        final Object value;
+        final long expireAt;
+
+        Replica(Object value) {
+            this.value = value;
+            this.expireAt = System.currentTimeMillis() + HOT_TTL_MILLIS;
+        }
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * tool 使用hutool提供的LRU缓存，内部加锁，线程安全
+     */
+    private final LRUCache<String, Object> cache = CacheUtil.newLRUCache(MAX_SIZE, TTL_MILLIS);
+
+    /**
+     * 按照前缀统计命中次数 [0]命中 [1]未命中
+     */
+    private final Map<String, LongAdder[]> stats = new ConcurrentHashMap<>();
+
+    /**
+     * 热点key -> 副本
+     */
+    private final Map<String, Replica> replicas = new ConcurrentHashMap<>();
+
+    /**
+     * 订阅缓存失效频道，收到消息后删除本地条目
+     * 自己发布的消息也会收到，删除操作是幂等的，不影响
+     */
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            cache.remove(key);
+            replicas.remove(key);
+        }, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+
+        //晋升时，如果一级缓存中已经有数据，直接复制一份副本；降级时删除副本
+        hotKeyDetector.onPromote(key -> {
+            Object value = cache.get(key, false);
+            if (value != null) {
+                replicas.put(key, new Replica(value));
+            }
+        });
+        hotKeyDetector.onDemote(replicas::remove);
+    }
+
+    /**
+     * 从本地缓存中获取数据，并记录命中情况
+     * @param pre 键值前缀，用于统计
+     * @param key 完整的键
+     * @return 缓存的数据，不存在或已过期返回null
+     */
+    public Object get(String pre, String key) {
+        hotKeyDetector.record(key);
+        //1. 先查热点副本
+        Object value = getReplica(key);
+        //2. 不更新最后访问时间，保证条目按照写入时间过期
+        if (value == null) {
+            value = cache.get(key, false);
+        }
+        LongAdder[] counter = stats.computeIfAbsent(pre, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+        counter[value != null ? 0 : 1].increment();
+        return value;
+    }
+
+    /**
+     * 写入本地缓存
+     * @param key 完整的键
+     * @param value 数据
+     * @param weight 条目的权重，超过上限不缓存
+     */
+    public void put(String key, Object value, int weight) {
+        if (value == null || weight > MAX_ENTRY_WEIGHT) {
+            return;
+        }
+        cache.put(key, value);
+        putHot(key, value);
+    }
+
+    /**
+     * 只查询热点副本，并记录一次访问
+     * 用于不适合进入一级缓存、只在成为热点之后才缓存的数据
+     * @param pre 键值前缀，用于统计
+     * @param key 完整的键
+     * @return 副本中的数据，不是热点key或者已过期返回null
+     */
+    public Object getHot(String pre, String key) {
+        hotKeyDetector.record(key);
+        Object value = getReplica(key);
+        LongAdder[] counter = stats.computeIfAbsent(pre, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+        counter[value != null ? 0 : 1].increment();
+        return value;
+    }
+
+    /**
+     * 如果是热点key，保存一份副本
+     * @param key 完整的键
+     * @param value 数据
+     */
+    public void putHot(String key, Object value) {
+        if (value != null && hotKeyDetector.isHot(key)) {
+            replicas.put(key, new Replica(value));
+        }
+    }
+
+    private Object getReplica(String key) {
+        Replica replica = replicas.get(key);
+        if (replica == null) {
+            return null;
+        }
+        if (replica.expireAt < System.currentTimeMillis()) {
+            replicas.remove(key, replica);
+            return null;
+        }
+        return replica.value;
+    }
+
+    /**
+     * 删除所有结点上的本地条目
+     * 先删除自己的，再广播给其他结点
+     * @param key 完整的键
+     */
+    public void invalidate(String key) {
+        cache.remove(key);
+        replicas.remove(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 获取各个前缀的命中统计
+     * @return 前缀 -> {hit, miss, hitRate}
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> res = new LinkedHashMap<>();
+        stats.forEach((pre, counter) -> {
+            long hit = counter[0].sum();
+            long miss = counter[1].sum();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("hit", hit);
+            item.put("miss", miss);
+            item.put("hitRate", hit + miss == 0 ? 0D : (double) hit / (hit + miss));
+            res.put(pre, item);
+        });
+        return res;
+    }
+
+    /**
+     * 当前缓存的条目数
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * 当前热点副本的个数
+     */
+    public int hotSize() {
+        return replicas.size();
+    }
+
+    /**
+     * 热点key的探测指标，以及当前的副本个数
+     * @return 指标
+     */
+    public Map<String, Object> hotKeyStats() {
+        Map<String, Object> res = hotKeyDetector.stats();
+        res.put("replicas", replicas.size());
+        return res;
+    }
+}
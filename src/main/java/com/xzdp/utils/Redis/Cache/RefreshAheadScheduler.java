@@ -0,0 +1,193 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 逻辑过期缓存的提前刷新(refresh-ahead)
+ *
+ *  原来只有请求到达时才会发现缓存过期，过期后的第一个请求一定拿到旧数据并触发重建
+ *  这里在后台定时扫描被访问过的逻辑过期key：
+ *  1. 记录每个key的访问次数，每轮扫描做一次衰减，得到访问热度
+ *  2. 热key在过期前的一段时间内主动重建，按热度从高到低，每轮最多提交一批
+ *  3. 冷key不刷新，等它自然过期；长时间没有访问的key不再跟踪
+ */
+@Slf4j
+@Component
+public class RefreshAheadScheduler {
+
+    /**
+     * 扫描间隔，秒
+     */
+    private static final long SCAN_INTERVAL_SECONDS = 5;
+
+    /**
+     * 距离逻辑过期时间小于该值时开始刷新，秒
+     */
+    private static final long REFRESH_BEFORE_SECONDS = 60;
+
+    /**
+     * 热度达到该值才会提前刷新
+     */
+    private static final double HOT_THRESHOLD = 5;
+
+    /**
+     * 热度低于该值，且已经过期的key不再跟踪
+     */
+    private static final double COLD_THRESHOLD = 0.5;
+
+    /**
+     * 每轮最多提交的刷新任务数
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * 最多跟踪的key的个数
+     */
+    private static final int MAX_TRACKED = 10000;
+
+    /**
+     * 被跟踪的key
+     */
+    private static class Entry {
+        /**
+         * 重建逻辑，提交到重建线程池；返回任务是否被接受(重复或队列满时不接受)
+         */
+        final BooleanSupplier refresher;
+        /**
+         * 最近一次看到的逻辑过期时间
+         */
+        volatile LocalDateTime expireTime;
+        /**
+         * 本轮的访问次数
+         */
+        final LongAdder hits = new LongAdder();
+        /**
+         * 访问热度，每轮 score = score / 2 + hits
+         */
+        double score;
+
+        Entry(BooleanSupplier refresher) {
+            this.refresher = refresher;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder lapsed = new LongAdder();
+
+    private final ScheduledExecutorService REFRESH_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("cache-refresh-ahead-", true));
+
+    @PostConstruct
+    private void init() {
+        REFRESH_EXECUTOR.scheduleWithFixedDelay(this::scan, SCAN_INTERVAL_SECONDS, SCAN_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        REFRESH_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 记录一次访问
+     * @param key 逻辑过期缓存的key
+     * @param expireTime 当前的逻辑过期时间
+     * @param refresher 提交重建任务，返回是否被接受；只在第一次跟踪时使用
+     */
+    public void recordAccess(String key, LocalDateTime expireTime, BooleanSupplier refresher) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= MAX_TRACKED) {
+                return;
+            }
+            entry = entries.computeIfAbsent(key, k -> new Entry(refresher));
+        }
+        entry.expireTime = expireTime;
+        entry.hits.increment();
+    }
+
+    /**
+     * 缓存被重新写入后，更新跟踪的过期时间，避免重复刷新
+     * @param key 逻辑过期缓存的key
+     * @param expireTime 新的逻辑过期时间
+     */
+    public void onWrite(String key, LocalDateTime expireTime) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.expireTime = expireTime;
+        }
+    }
+
+    /**
+     * 定时扫描
+     *  1. 衰减热度
+     *  2. 找出即将过期的热key，按热度排序，提交一批刷新任务
+     *  3. 删除已经过期的冷key
+     */
+    private void scan() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime deadline = now.plusSeconds(REFRESH_BEFORE_SECONDS);
+            List<Entry> candidates = new ArrayList<>();
+
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                entry.score = entry.score / 2 + entry.hits.sumThenReset();
+                LocalDateTime expireTime = entry.expireTime;
+                //1. 冷key，等它自然过期
+                if (entry.score < COLD_THRESHOLD) {
+                    if (expireTime.isBefore(now)) {
+                        it.remove();
+                        lapsed.increment();
+                    }
+                    continue;
+                }
+                //2. 热key，并且即将过期
+                if (entry.score >= HOT_THRESHOLD && expireTime.isBefore(deadline)) {
+                    candidates.add(entry);
+                }
+            }
+
+            //3. 按热度从高到低，每轮最多刷新一批；只统计被重建线程池接受的任务
+            candidates.sort((a, b) -> Double.compare(b.score, a.score));
+            for (int i = 0; i < candidates.size() && i < BATCH_SIZE; i++) {
+                if (candidates.get(i).refresher.getAsBoolean()) {
+                    refreshed.increment();
+                }
+            }
+        } catch (Exception e) {
+            log.error("提前刷新缓存失败！", e);
+        }
+    }
+
+    /**
+     * 运行指标
+     * @return 指标
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("tracked", entries.size());
+        res.put("refreshed", refreshed.sum());
+        res.put("lapsed", lapsed.sum());
+        return res;
+    }
+}
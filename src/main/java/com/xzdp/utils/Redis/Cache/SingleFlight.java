@@ -0,0 +1,74 @@
+package com.xzdp.utils.Redis.Cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 单飞(single-flight)：合并同一个结点内对同一个键的并发加载
+ *
+ *  1. 同一个键，同一时刻只有第一个到达的线程真正执行加载逻辑
+ *  2. 其余线程等待同一个future，拿到相同的结果，不再访问数据库
+ *  3. 加载结束后移除future，下一次未命中会重新加载
+ *
+ *  只在单个JVM内生效，多个结点之间仍然需要Redis的互斥锁来协调
+ */
+public class SingleFlight {
+
+    /**
+     * 正在进行中的加载任务，键 -> 加载结果
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行加载，同一个键的并发调用只会执行一次 loader
+     *
+     * @param key 键值
+     * @param loader 加载逻辑
+     * @param timeout 等待其他线程加载的超时时间
+     * @param timeUnit 时间单位
+     * @param <R> 返回值类型
+     * @return 加载结果
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> loader, long timeout, TimeUnit timeUnit) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, future);
+
+        //1. 已经有线程在加载，等待它的结果
+        if (existing != null) {
+            try {
+                return (R) existing.get(timeout, timeUnit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new RuntimeException("等待缓存加载超时：" + key, e);
+            }
+        }
+
+        //2. 自己是第一个，执行加载逻辑，并把结果交给其他等待的线程
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * 当前正在加载的键的个数
+     */
+    public int inFlight() {
+        return calls.size();
+    }
+}
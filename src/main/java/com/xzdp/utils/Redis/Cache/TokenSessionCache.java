@@ -0,0 +1,168 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.bean.BeanUtil;
+import com.xzdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.xzdp.utils.Constants.RedisConstants.LOGIN_LOGOUT_CHANNEL;
+import static com.xzdp.utils.Constants.RedisConstants.LOGIN_USER_KEY;
+import static com.xzdp.utils.Constants.RedisConstants.LOGIN_USER_REFRESH_TTL;
+
+/**
+ * 结点内的token会话缓存，给 RefreshTokenInterceptor 使用
+ *
+ *  原来每个请求都要 HGETALL 读取用户 + EXPIRE 刷新有效期，两次Redis往返只为了认证
+ *  1. 用户信息在本地缓存很短的时间，到期后重新从Redis读取；退出登录时通过发布订阅通知所有结点删除
+ *  2. 本地记录token在Redis中的过期时间，剩余有效期不到一半时才执行 EXPIRE，重新读取用户信息时保留这个记录
+ *  3. EXPIRE 返回false说明token已经被删除或过期，删除本地会话，按未登录处理
+ *
+ *  其他结点续期时本结点不知道，只会多续期一次，不影响正确性
+ */
+@Slf4j
+@Component
+public class TokenSessionCache {
+
+    /**
+     * 最多保存的会话数，超出后按照LRU淘汰
+     */
+    private static final int MAX_SIZE = 100000;
+
+    /**
+     * 用户信息在本地的存活时间，毫秒
+     * 广播消息丢失时，已退出的token最多在这段时间内仍然有效
+     */
+    private static final long FRESH_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * 会话不活跃多久后从本地删除，毫秒
+     * 比 FRESH_MILLIS 长，活跃的用户重新读取用户信息时，仍然保留续期的记录
+     */
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * token续期后的有效期，毫秒
+     */
+    private static final long REFRESH_TTL_MILLIS = TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_TTL);
+
+    /**
+     * 一个token的会话
+     */
+    private static class Session {
+        final UserDTO user;
+        final long loadedAt;
+        /**
+         * 本结点记录的token在Redis中的过期时间，0 表示不知道
+         */
+        volatile long expireAt;
+
+        Session(UserDTO user, long loadedAt, long expireAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+            this.expireAt = expireAt;
+        }
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * token -> 会话
+     * tool 使用hutool提供的LRU缓存，内部加锁，线程安全
+     */
+    private final LRUCache<String, Session> sessions = CacheUtil.newLRUCache(MAX_SIZE, IDLE_MILLIS);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder renewed = new LongAdder();
+
+    /**
+     * 订阅退出登录的频道，收到消息后删除本地会话
+     */
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener((message, pattern) ->
+                sessions.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(LOGIN_LOGOUT_CHANNEL));
+    }
+
+    /**
+     * 获取token对应的用户，必要时为token续期
+     * @param token 请求头中的token
+     * @return 用户；token不存在返回null
+     */
+    public UserDTO get(String token) {
+        long now = System.currentTimeMillis();
+        String tokenKey = LOGIN_USER_KEY + token;
+        Session session = sessions.get(token, false);
+
+        //1. 本地的用户信息已经过期，从Redis中重新读取
+        if (session == null || now - session.loadedAt >= FRESH_MILLIS) {
+            loads.increment();
+            Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(tokenKey);
+            if (userMap.isEmpty()) {
+                sessions.remove(token);
+                return null;
+            }
+            // false 表示不忽略异常
+            UserDTO user = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+            //1.1 保留之前的续期记录
+            session = new Session(user, now, session == null ? 0 : session.expireAt);
+            sessions.put(token, session);
+        } else {
+            hits.increment();
+        }
+
+        //2. 剩余有效期不到一半时才续期
+        if (session.expireAt - now < REFRESH_TTL_MILLIS / 2) {
+            Boolean ok = stringRedisTemplate.expire(tokenKey, REFRESH_TTL_MILLIS, TimeUnit.MILLISECONDS);
+            if (!Boolean.TRUE.equals(ok)) {
+                //2.1 token已经不存在
+                sessions.remove(token);
+                return null;
+            }
+            session.expireAt = now + REFRESH_TTL_MILLIS;
+            renewed.increment();
+        }
+        return session.user;
+    }
+
+    /**
+     * 退出登录，删除所有结点上的会话
+     * 调用方先删除Redis中的token，再调用这个方法
+     * @param token 请求头中的token
+     */
+    public void invalidate(String token) {
+        sessions.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_LOGOUT_CHANNEL, token);
+    }
+
+    /**
+     * 运行指标
+     * @return 会话数、本地命中、从Redis读取和续期的次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("size", sessions.size());
+        res.put("hits", hits.sum());
+        res.put("loads", loads.sum());
+        res.put("renewed", renewed.sum());
+        return res;
+    }
+}
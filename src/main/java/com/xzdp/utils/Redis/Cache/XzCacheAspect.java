@@ -0,0 +1,223 @@
+package com.xzdp.utils.Redis.Cache;
+
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.xzdp.dto.Result;
+import com.xzdp.utils.Redis.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.Ordered;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.Order;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.xzdp.utils.Constants.RedisConstants.CACHE_LOAD_WAIT_MILLIS;
+
+/**
+ * 处理 @XzCached 和 @XzCacheEvict 注解
+ *
+ *  查询：按注解选择 CacheClient 中的策略，方法本身作为查询数据库的逻辑
+ *        返回 Result 的方法只缓存成功结果的 data，失败的结果不缓存
+ *  删除：方法正常返回后删除缓存
+ *
+ *  优先级最高，位于事务切面的外层：删除缓存发生在事务提交之后，
+ *  避免删除之后、提交之前，其他线程把旧数据重新写入缓存
+ */
+@Slf4j
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class XzCacheAspect {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilterManager bloomFilters;
+
+    @Resource
+    private ExpirySpreader expirySpreader;
+
+    /**
+     * 逻辑过期缓存未预热时，合并同一个key的并发加载
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer nameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    /**
+     * 解析过的SpEL表达式
+     */
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+
+    @Around("@annotation(cached)")
+    @SuppressWarnings("unchecked")
+    public Object cached(ProceedingJoinPoint pjp, XzCached cached) throws Throwable {
+        MethodSignature signature = (MethodSignature) pjp.getSignature();
+        Class<Object> type = (Class<Object>) signature.getReturnType();
+        if (type.isPrimitive()) {
+            throw new IllegalStateException("@XzCached 不支持基本类型的返回值：" + signature.getMethod());
+        }
+        //1. 计算key，为null时不走缓存
+        Object id = key(cached.key(), signature.getMethod(), pjp.getArgs());
+        if (id == null) {
+            return pjp.proceed();
+        }
+        if (!Result.class.equals(type)) {
+            return query(pjp, cached, id, type, k -> proceed(pjp));
+        }
+
+        //1.1 返回 Result：缓存成功结果的 data，失败的结果通过异常带出来，不写入缓存
+        try {
+            CachedResult r = (CachedResult) query(pjp, cached, id, (Class<Object>) (Class<?>) CachedResult.class,
+                    k -> unwrap((Result) proceed(pjp)));
+            return r == null ? Result.ok() : Result.ok(r.resolve(cached.dataType()));
+        } catch (RuntimeException e) {
+            // 经过 SingleFlight 时，其他线程拿到的是包装后的异常
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof UncachedResult) {
+                    return ((UncachedResult) t).result;
+                }
+            }
+            throw e;
+        }
+    }
+
+
+    /**
+     * 按注解的策略查询缓存
+     * @param type 缓存值的类型
+     * @param dbFallback 查询数据库的逻辑
+     */
+    private Object query(ProceedingJoinPoint pjp, XzCached cached, Object id, Class<Object> type,
+                         Function<Object, Object> dbFallback) {
+
+        //2. 按前缀配置有效期的抖动比例，写入时由 CacheClient 打散；有效期统一换算成毫秒
+        String prefix = cached.prefix();
+        expirySpreader.register(prefix, cached.jitter());
+        long ttl = cached.unit().toMillis(cached.ttl());
+        String lockPrefix = StrUtil.isBlank(cached.lockPrefix()) ? "lock:" + prefix : cached.lockPrefix();
+
+        //3. 按策略查询
+        switch (cached.strategy()) {
+            case MUTEX:
+                return cacheClient.queryWithMutex(prefix, lockPrefix, id, type, dbFallback,
+                        ttl, TimeUnit.MILLISECONDS, CACHE_LOAD_WAIT_MILLIS);
+            case LOGICAL_EXPIRE:
+                return queryWithLogicalExpire(prefix, lockPrefix, id, type, dbFallback, ttl);
+            case PASS_THROUGH:
+            default:
+                return cacheClient.queryWithPassThrough(prefix, id, type, dbFallback,
+                        ttl, TimeUnit.MILLISECONDS, cached.cacheNull());
+        }
+    }
+
+
+    /**
+     *  逻辑过期策略
+     *  CacheClient 中的逻辑过期查询要求提前预热，未命中直接返回null
+     *  注解缓存没有预热的过程，未命中时同步查询数据库并写入缓存，同一个key在本结点内只查询一次
+     */
+    private Object queryWithLogicalExpire(String prefix, String lockPrefix, Object id, Class<Object> type,
+                                          Function<Object, Object> dbFallback, long ttl) {
+        Object r = cacheClient.queryWithLogicalExpire(prefix, lockPrefix, id, type, dbFallback, ttl, TimeUnit.MILLISECONDS);
+        if (r != null || !bloomFilters.mightContainByPrefix(prefix, id)) {
+            return r;
+        }
+        String key = prefix + id;
+        return singleFlight.execute(key, () -> {
+            Object data = dbFallback.apply(id);
+            if (data != null) {
+                cacheClient.setLogic(key, data, ttl, TimeUnit.MILLISECONDS);
+            }
+            return data;
+        }, CACHE_LOAD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+
+    @AfterReturning("@annotation(evict)")
+    public void evict(JoinPoint jp, XzCacheEvict evict) {
+        Object id = key(evict.key(), ((MethodSignature) jp.getSignature()).getMethod(), jp.getArgs());
+        if (id == null) {
+            return;
+        }
+        for (String prefix : evict.prefix()) {
+            cacheClient.delete(prefix + id);
+        }
+    }
+
+
+    /**
+     * 计算缓存key
+     * @param spel key的SpEL表达式
+     * @param method 被注解的方法
+     * @param args 方法参数
+     * @return 表达式为空时返回第一个参数，没有参数时返回空字符串
+     */
+    private Object key(String spel, Method method, Object[] args) {
+        if (StrUtil.isBlank(spel)) {
+            return args.length == 0 ? "" : args[0];
+        }
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(null, method, args, nameDiscoverer);
+        return expressions.computeIfAbsent(spel, parser::parseExpression).getValue(context);
+    }
+
+    /**
+     * 取出要缓存的 data
+     * @return data 为null时返回null，按数据不存在处理
+     * @throws UncachedResult 失败的结果，不缓存
+     */
+    private static Object unwrap(Result result) {
+        if (result == null || !BooleanUtil.isTrue(result.getSuccess())) {
+            throw new UncachedResult(result);
+        }
+        return result.getData() == null ? null : new CachedResult(result.getData());
+    }
+
+    /**
+     * 携带不缓存的结果，从查询数据库的逻辑中带出来
+     */
+    private static class UncachedResult extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Result result;
+
+        UncachedResult(Result result) {
+            super("结果不缓存", null, false, false);
+            this.result = result;
+        }
+    }
+
+    /**
+     * 执行被注解的方法，checked异常包装成运行时异常
+     */
+    private static Object proceed(ProceedingJoinPoint pjp) {
+        try {
+            return pjp.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.xzdp.utils.Redis.Cache;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后删除缓存，由 XzCacheAspect 处理
+ *  在事务提交之后执行，删除的同时通知所有结点删除本地缓存
+ *
+ *  例如：@XzCacheEvict(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface XzCacheEvict {
+
+    /**
+     * 缓存key的前缀，可以同时删除多个前缀下的同一个key
+     */
+    String[] prefix();
+
+    /**
+     * 缓存key的SpEL表达式，为空时使用第一个参数，没有参数时key就是前缀
+     */
+    String key() default "";
+}
@@ -0,0 +1,70 @@
+package com.xzdp.utils.Redis.Cache;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static com.xzdp.utils.Constants.RedisConstants.CACHE_TTL_JITTER;
+
+/**
+ * 声明式缓存，由 XzCacheAspect 处理
+ *
+ *  缓存的key = prefix + key表达式的值，缓存的值就是方法的返回值
+ *  例如：@XzCached(prefix = CACHE_USER_INFO_KEY, key = "#userId", ttl = CACHE_USER_INFO_TTL, dataType = UserInfo.class)
+ *
+ *  方法返回 Result 时：
+ *  1. 失败的结果(success = false)不缓存，原样返回
+ *  2. 只缓存 data；data 为null按数据不存在处理，按 cacheNull 缓存空值，命中时返回 Result.ok()
+ *  3. 命中缓存时按 dataType 把 data 转换成实体类或实体类的列表；total 不缓存
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface XzCached {
+
+    /**
+     * 缓存key的前缀
+     */
+    String prefix();
+
+    /**
+     * 缓存key的SpEL表达式，例如 "#id"、"#shop.id"
+     * 为空时使用第一个参数，没有参数时key就是前缀
+     */
+    String key() default "";
+
+    /**
+     * 读取策略
+     */
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * 有效期；逻辑过期策略下是逻辑过期时间
+     */
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+     * 有效期的随机抖动比例，实际有效期在 [ttl, ttl * (1 + jitter)) 之间，避免同一批key同时过期
+     */
+    double jitter() default CACHE_TTL_JITTER;
+
+    /**
+     * 数据不存在时是否缓存空值，防止缓存穿透；只对 PASS_THROUGH 生效，MUTEX 总是缓存空值
+     */
+    boolean cacheNull() default true;
+
+    /**
+     * 互斥锁的前缀，为空时使用 "lock:" + prefix
+     */
+    String lockPrefix() default "";
+
+    /**
+     * 方法返回 Result 时 data 的类型，data 是列表时为元素类型；默认不转换，命中缓存时是json对象
+     */
+    Class<?> dataType() default Object.class;
+}
@@ -1,19 +1,38 @@
 package com.xzdp.utils.Redis;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.xzdp.dto.RedisData;
+import com.xzdp.utils.Redis.Cache.BloomFilterManager;
+import com.xzdp.utils.Redis.Cache.CacheRebuildExecutor;
+import com.xzdp.utils.Redis.Cache.ExpirySpreader;
+import com.xzdp.utils.Redis.Cache.LocalCache;
+import com.xzdp.utils.Redis.Cache.RefreshAheadScheduler;
+import com.xzdp.utils.Redis.Cache.SingleFlight;
+import com.xzdp.utils.Redis.Codec.CacheCodecs;
+import com.xzdp.utils.Redis.Script.LuaScript;
+import com.xzdp.utils.Redis.Script.RedisScripts;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import static com.xzdp.utils.Constants.RedisConstants.*;
@@ -30,19 +49,169 @@ public class CacheClient {
     private StringRedisTemplate stringRedisTemplate;
 
     /**
-     * 将任意Java对象序列化为json并存储在string类型的key中，并且可以设置TTL过期时间
+     * 本地一级缓存，挡在Redis前面
+     */
+    @Resource
+    private LocalCache localCache;
+
+    /**
+     * 布隆过滤器，拦截一定不存在的id
+     */
+    @Resource
+    private BloomFilterManager bloomFilters;
+
+    /**
+     * 共享的缓存重建线程池，有界队列 + 按key去重
+     */
+    @Resource
+    private CacheRebuildExecutor rebuildExecutor;
+
+    /**
+     * 逻辑过期缓存的提前刷新
+     */
+    @Resource
+    private RefreshAheadScheduler refreshAhead;
+
+    /**
+     * 打散过期时间，防止同一批key同时过期
+     */
+    @Resource
+    private ExpirySpreader expirySpreader;
+
+    /**
+     * 缓存值的编解码，读取时自动识别json和二进制格式
+     */
+    @Resource
+    private CacheCodecs codecs;
+
+    /**
+     * 互斥锁和带 fencing token 的写入都通过lua脚本执行
+     */
+    @Resource
+    private RedisScripts redisScripts;
+
+    /**
+     * 因为token过期被拒绝的写入次数
+     */
+    private final LongAdder fenceRejected = new LongAdder();
+
+    /**
+     * 合并本结点内对同一个键的并发加载
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 以字节数组的形式读取缓存，不经过字符串转换
+     * @param key 键值
+     * @return null 表示缓存未命中；长度为0表示缓存的空值
+     */
+    private byte[] getBytes(String key) {
+        RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(serializer.serialize(key)));
+    }
+
+    /**
+     * 以字节数组的形式写入缓存
+     * @param key 键值
+     * @param value 编码后的值
+     * @param expiration 过期时间，persistent 表示不过期
+     */
+    private void setBytes(String key, byte[] value, Expiration expiration) {
+        RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.stringCommands().set(serializer.serialize(key), value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * 写入缓存；token大于0时，只有token不小于最后一次写入的token才写入
+     *
+     *  重建线程持有互斥锁期间可能因为GC等原因停顿，锁过期后被下一个线程获取并写入新数据
+     *  停顿结束后旧线程的写入带着更小的token，在Redis中被拒绝，不会覆盖新数据
+     *
+     * @param key 键值
+     * @param value 编码后的值
+     * @param expiration 过期时间，persistent 表示不过期
+     * @param token 获取互斥锁时得到的token，0 表示不检查
+     * @return 是否写入
+     */
+    private boolean setBytes(String key, byte[] value, Expiration expiration, long token) {
+        if (token <= 0) {
+            setBytes(key, value, expiration);
+            return true;
+        }
+        long ttl = expiration.isPersistent() ? 0 : expiration.getExpirationTimeInMilliseconds();
+        Long ok = redisScripts.execute(LuaScript.FENCED_SET,
+                Arrays.asList(key, CACHE_FENCE_KEY + RedisScripts.hashTag(key)), value, token, ttl);
+        if (ok == null || ok != 1) {
+            fenceRejected.increment();
+            log.warn("锁已被其他线程获取，丢弃旧token的写入：{}，token={}", key, token);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 计算打散之后的过期时间，并记录到过期直方图
+     * @param key 键值
+     * @param time 原始有效期
+     * @param timeUnit 时间单位
+     * @return 实际的过期时间
+     */
+    private Expiration expiration(String key, long time, TimeUnit timeUnit) {
+        long ttl = expirySpreader.spread(key, timeUnit.toMillis(time));
+        expirySpreader.record(System.currentTimeMillis() + ttl);
+        return Expiration.milliseconds(ttl);
+    }
+
+    /**
+     * 解码缓存值；类结构变化或数据损坏时返回null，由调用方按未命中处理
+     */
+    private <R> R decodeOrNull(String key, byte[] bytes, Class<R> type) {
+        try {
+            return codecs.decode(bytes, type);
+        } catch (Exception e) {
+            log.warn("缓存解码失败，按未命中处理：{}", key, e);
+            return null;
+        }
+    }
+
+
+    /**
+     * 将任意Java对象序列化并存储在string类型的key中，并且可以设置TTL过期时间
+     * 实际的有效期会在 time 的基础上增加一个偏移量，避免同一批key同时过期
      * @param setKey 键值
      * @param object 存入对象
      * @param time TTL 有效期
      * @param timeUnit 时间单位
      */
     public void set(String setKey, Object object, Long time, TimeUnit timeUnit) {
-        stringRedisTemplate.opsForValue().set(setKey, JSONUtil.toJsonStr(object), time, timeUnit);
+        set(setKey, object, time, timeUnit, 0L);
     }
 
 
     /**
-     * 将任意Java对象序列化为json并存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题
+     * 持有互斥锁时写入缓存，锁过期后的旧写入会被拒绝
+     * @param setKey 键值
+     * @param object 存入对象
+     * @param time TTL 有效期
+     * @param timeUnit 时间单位
+     * @param token 获取互斥锁时得到的 fencing token，0 表示不检查
+     * @return 是否写入
+     */
+    public boolean set(String setKey, Object object, Long time, TimeUnit timeUnit, long token) {
+        if (!setBytes(setKey, codecs.encode(object), expiration(setKey, time, timeUnit), token)) {
+            return false;
+        }
+        //数据变化，通知所有结点删除本地缓存
+        localCache.invalidate(setKey);
+        return true;
+    }
+
+
+    /**
+     * 将任意Java对象序列化并存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题
+     * 逻辑过期时间同样会增加一个偏移量，避免同一批key同时过期、同时重建
      *
      * @param setKey 键值
      * @param object 存入对象
@@ -50,13 +219,122 @@ public class CacheClient {
      * @param timeUnit 时间单位
      */
     public void setLogic(String setKey, Object object, Long time, TimeUnit timeUnit) {
+        setLogic(setKey, object, time, timeUnit, 0L);
+    }
+
+
+    /**
+     * 持有互斥锁时写入逻辑过期缓存，锁过期后的旧写入会被拒绝
+     *
+     * @param setKey 键值
+     * @param object 存入对象
+     * @param time 逻辑过期时间
+     * @param timeUnit 时间单位
+     * @param token 获取互斥锁时得到的 fencing token，0 表示不检查
+     * @return 是否写入
+     */
+    public boolean setLogic(String setKey, Object object, Long time, TimeUnit timeUnit, long token) {
+        // key 时间操作API
+        long ttl = expirySpreader.spread(setKey, timeUnit.toMillis(time));
+        return setLogic(setKey, object, LocalDateTime.now().plus(ttl, ChronoUnit.MILLIS), token);
+    }
+
+
+    /**
+     * 写入逻辑过期缓存，直接指定逻辑过期时间，不再打散
+     * 用于预热时由调用方统一安排过期时间
+     *
+     * @param setKey 键值
+     * @param object 存入对象
+     * @param expireTime 逻辑过期时间
+     */
+    public void setLogic(String setKey, Object object, LocalDateTime expireTime) {
+        setLogic(setKey, object, expireTime, 0L);
+    }
+
+
+    private boolean setLogic(String setKey, Object object, LocalDateTime expireTime, long token) {
         //封装RedisData
         RedisData redisData = new RedisData();
         redisData.setData(object);
-        // key 时间操作API
-        redisData.setExpireTime(LocalDateTime.now().plusMinutes(timeUnit.toMinutes(time)));
+        redisData.setExpireTime(expireTime);
         //存入Redis
-        stringRedisTemplate.opsForValue().set(setKey, JSONUtil.toJsonStr(redisData));
+        if (!setBytes(setKey, codecs.encodeLogic(redisData), Expiration.persistent(), token)) {
+            return false;
+        }
+        expirySpreader.record(expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        //数据变化，通知所有结点删除本地缓存
+        localCache.invalidate(setKey);
+        //更新提前刷新跟踪的过期时间
+        refreshAhead.onWrite(setKey, expireTime);
+        return true;
+    }
+
+
+    /**
+     * 删除缓存
+     * 删除Redis中的键，同时通知所有结点删除本地缓存
+     * @param key 键值
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+    }
+
+
+    /**
+     * 获取本地缓存的命中统计
+     * @return 前缀 -> 统计信息
+     */
+    public Map<String, Map<String, Object>> localStats() {
+        return localCache.stats();
+    }
+
+
+    /**
+     * 获取布隆过滤器的运行指标
+     * @return 过滤器名称 -> 指标
+     */
+    public Map<String, Object> bloomStats() {
+        return bloomFilters.stats();
+    }
+
+
+    /**
+     * 获取缓存重建线程池的运行指标
+     * @return 指标，包括因为token过期被拒绝的写入次数
+     */
+    public Map<String, Object> rebuildStats() {
+        Map<String, Object> res = rebuildExecutor.stats();
+        res.put("fenceRejected", fenceRejected.sum());
+        return res;
+    }
+
+
+    /**
+     * 获取热点key的探测指标，包括上一个窗口的 top-K
+     * @return 指标
+     */
+    public Map<String, Object> hotKeyStats() {
+        return localCache.hotKeyStats();
+    }
+
+
+    /**
+     * 获取即将过期的key的直方图
+     * @return 指标
+     */
+    public Map<String, Object> expiryStats() {
+        return expirySpreader.stats();
+    }
+
+
+    /**
+     * 获取提前刷新的运行指标
+     * @return 指标
+     */
+    public Map<String, Object> refreshAheadStats() {
+        return refreshAhead.stats();
     }
 
 
@@ -81,48 +359,299 @@ public class CacheClient {
      * @return R 返回取到的实体类
      */
     public <R, ID> R queryWithPassThrough(String pre, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        return queryWithPassThrough(pre, id, type, dbFallback, time, timeUnit, true);
+    }
+
+
+    /**
+     *   用缓存null值的方式解决缓存穿透问题，可以选择数据不存在时是否缓存空值
+     *
+     * @param cacheNull 数据不存在时是否缓存空值；false 时每次都会查询数据库
+     * @see #queryWithPassThrough(String, Object, Class, Function, Long, TimeUnit)
+     */
+    public <R, ID> R queryWithPassThrough(String pre, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                          Long time, TimeUnit timeUnit, boolean cacheNull) {
         String key = pre + id;
 
+        //0. 先查本地缓存，命中直接返回
+        Object local = localCache.get(pre, key);
+        if (local != null) {
+            return type.cast(local);
+        }
+        //0.1 布隆过滤器判断id一定不存在，不再访问Redis和数据库
+        if (!bloomFilters.mightContainByPrefix(pre, id)) {
+            return null;
+        }
+
         //1. 从redis中查询店铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
 
         //2. 缓存命中，分两种情况处理
         //2.1 缓存结果不为空，直接返回
-        if (StrUtil.isNotBlank(json)) {
+        if (bytes != null && bytes.length > 0) {
             //("缓存命中！");
-            return JSONUtil.toBean(json, type);
+            R r = decodeOrNull(key, bytes, type);
+            if (r != null) {
+                localCache.put(key, r, bytes.length);
+                return r;
+            }
         }
         //2.2 缓存结果为空
-        if ("".equals(json)) {
+        if (bytes != null && bytes.length == 0) {
             //log.info("虚假id");
             return null;
         }
 
-        //3. 查询数据库
+        //3. 查询数据库，写入缓存
+        // 本结点内同一个键只有一个线程查询数据库，其余线程等待同一个结果
+        return singleFlight.execute(key, () -> loadAndCache(key, id, dbFallback, time, timeUnit, cacheNull, 0L),
+                CACHE_LOAD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     *   批量查询，缓存空值解决缓存穿透
+     *   把n次 GET + n次数据库查询，变成 1次 MGET + 1次 IN 查询 + 1次管道写回
+     *
+     *  1. id去重，先查本地缓存
+     *  2. 布隆过滤器过滤掉一定不存在的id
+     *  3. 剩余的id使用一次 MGET 查询Redis
+     *  4. Redis中也没有的id，调用批量查询函数一次性查询数据库 (where id in (...))
+     *  5. 查询结果使用管道一次性写回Redis，数据库中不存在的id写入空值
+     *
+     * @param pre 键值前缀
+     * @param ids id集合
+     * @param type 实体类类型
+     * @param batchFallback 批量查询数据库的逻辑，返回 id -> 实体 的映射，不存在的id不放入映射
+     * @param time 缓存有效时间
+     * @param timeUnit 时间单位
+     * @param <R> 实体类类型
+     * @param <ID> ID 类型
+     * @return id -> 实体，按照传入id的顺序；不存在的id不在结果中
+     */
+    public <R, ID> Map<ID, R> multiGet(String pre, Collection<ID> ids, Class<R> type,
+                                       Function<Collection<ID>, Map<ID, R>> batchFallback, Long time, TimeUnit timeUnit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<ID, R> res = new HashMap<>(ids.size() * 2);
+
+        //1. id去重，先查本地缓存
+        List<ID> redisIds = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = localCache.get(pre, pre + id);
+            if (local != null) {
+                res.put(id, type.cast(local));
+            } else if (bloomFilters.mightContainByPrefix(pre, id)) {
+                //2. 布隆过滤器判断一定不存在的id直接丢弃
+                redisIds.add(id);
+            }
+        }
+
+        //3. 一次 MGET 查询Redis
+        List<ID> dbIds = new ArrayList<>();
+        if (!redisIds.isEmpty()) {
+            RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+            byte[][] keys = new byte[redisIds.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = serializer.serialize(pre + redisIds.get(i));
+            }
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.stringCommands().mGet(keys));
+            for (int i = 0; i < redisIds.size(); i++) {
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes != null && bytes.length == 0) {
+                    // 空值表示数据库中不存在，null 表示缓存未命中
+                    continue;
+                }
+                R r = bytes == null ? null : decodeOrNull(pre + redisIds.get(i), bytes, type);
+                if (r != null) {
+                    localCache.put(pre + redisIds.get(i), r, bytes.length);
+                    res.put(redisIds.get(i), r);
+                } else {
+                    dbIds.add(redisIds.get(i));
+                }
+            }
+        }
+
+        //4. 未命中的id，一次性查询数据库
+        if (!dbIds.isEmpty()) {
+            Map<ID, R> loaded = batchFallback.apply(dbIds);
+            if (loaded == null) {
+                loaded = Collections.emptyMap();
+            }
+            res.putAll(loaded);
+
+            //5. 使用管道一次性写回Redis
+            RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+            Map<ID, R> finalLoaded = loaded;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : dbIds) {
+                    R r = finalLoaded.get(id);
+                    byte[] key = serializer.serialize(pre + id);
+                    byte[] value = r == null ? new byte[0] : codecs.encode(r);
+                    Expiration expiration = r == null
+                            ? expiration(pre + id, CACHE_NULL_TTL, TimeUnit.MINUTES)
+                            : expiration(pre + id, time, timeUnit);
+                    connection.stringCommands().set(key, value, expiration, RedisStringCommands.SetOption.upsert());
+                }
+                return null;
+            });
+        }
+
+        //6. 按照传入id的顺序返回
+        Map<ID, R> ordered = new LinkedHashMap<>(res.size() * 2);
+        for (ID id : ids) {
+            R r = res.get(id);
+            if (r != null) {
+                ordered.put(id, r);
+            }
+        }
+        return ordered;
+    }
+
+
+    /**
+     *   缓存空值解决缓存穿透 + 互斥锁解决缓存击穿
+     *
+     *   两层互斥：
+     *   1. 本结点内使用单飞，同一个键只有一个线程去竞争Redis互斥锁，其余线程等待同一个future
+     *   2. 多个结点之间使用Redis的 setnx 互斥锁，只有拿到锁的结点查询数据库
+     *   没拿到锁的结点循环等待，直到Redis中有数据，或者超过等待时间
+     *
+     * @param pre 键值前缀
+     * @param lockPre 互斥锁前缀
+     * @param id 缓存id
+     * @param type 实体类类型
+     * @param dbFallback 函数式编程，查询数据库的逻辑
+     * @param time 缓存有效时间
+     * @param timeUnit 时间单位
+     * @param waitMillis 等待缓存重建的最长时间，毫秒；超时抛出异常
+     * @param <R> 实体类类型
+     * @param <ID> ID 类型
+     * @return R 返回取到的实体类
+     */
+    public <R, ID> R queryWithMutex(String pre, String lockPre, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                    Long time, TimeUnit timeUnit, long waitMillis) {
+        String key = pre + id;
+
+        //0. 先查本地缓存，命中直接返回
+        Object local = localCache.get(pre, key);
+        if (local != null) {
+            return type.cast(local);
+        }
+        //0.1 布隆过滤器判断id一定不存在，不再访问Redis和数据库
+        if (!bloomFilters.mightContainByPrefix(pre, id)) {
+            return null;
+        }
+
+        //1. 从redis中查询缓存
+        byte[] bytes = getBytes(key);
+
+        //2. 缓存命中，分两种情况处理
+        if (bytes != null && bytes.length > 0) {
+            R r = decodeOrNull(key, bytes, type);
+            if (r != null) {
+                localCache.put(key, r, bytes.length);
+                return r;
+            }
+        }
+        if (bytes != null && bytes.length == 0) {
+            return null;
+        }
+
+        //3. 缓存未命中，本结点内单飞，由一个线程去竞争互斥锁并重建缓存
+        String lockKey = lockPre + id;
+        long deadline = System.currentTimeMillis() + waitMillis;
+        return singleFlight.execute(key,
+                () -> rebuildWithMutex(key, lockKey, id, type, dbFallback, time, timeUnit, deadline),
+                waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     *  竞争Redis互斥锁，重建缓存
+     *
+     *  1. 获取互斥锁成功，再次检查缓存(其他结点可能刚刚重建好)，然后查询数据库写入缓存
+     *  2. 获取互斥锁失败，休眠一段时间后再从Redis中查询，查到则返回，否则继续竞争锁
+     *  3. 超过截止时间仍未拿到数据，抛出异常
+     */
+    private <R, ID> R rebuildWithMutex(String key, String lockKey, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                       Long time, TimeUnit timeUnit, long deadline) {
+        while (true) {
+            //1. 获取互斥锁
+            long token = tryGetLock(lockKey, LOCK_SHOP_TTL);
+            if (token > 0) {
+                try {
+                    //1.1 双重检查
+                    byte[] bytes = getBytes(key);
+                    R r = bytes == null || bytes.length == 0 ? null : decodeOrNull(key, bytes, type);
+                    if (r != null) {
+                        return r;
+                    }
+                    if (bytes != null && bytes.length == 0) {
+                        return null;
+                    }
+                    //1.2 查询数据库，写入缓存
+                    return loadAndCache(key, id, dbFallback, time, timeUnit, true, token);
+                } finally {
+                    //1.3 释放互斥锁
+                    unLock(lockKey, token);
+                }
+            }
+
+            //2. 获取锁失败，其他结点正在重建
+            if (System.currentTimeMillis() > deadline) {
+                throw new RuntimeException("等待缓存重建超时：" + key);
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            //2.1 休眠结束，再从Redis中查询
+            byte[] bytes = getBytes(key);
+            R r = bytes == null || bytes.length == 0 ? null : decodeOrNull(key, bytes, type);
+            if (r != null) {
+                return r;
+            }
+            if (bytes != null && bytes.length == 0) {
+                return null;
+            }
+        }
+    }
+
+
+    /**
+     *  查询数据库，并写入缓存
+     *  数据不存在时写入空值，避免缓存穿透
+     *  token大于0时，锁已经被其他线程获取则不写入，直接返回查到的数据
+     */
+    private <R, ID> R loadAndCache(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit,
+                                   boolean cacheNull, long token) {
+        //1. 查询数据库
         // 使用用户自己传入的函数逻辑去查询数据库
         R r = dbFallback.apply(id);
 
-        //4. 商户不存在，向redis中存入null值，避免缓存穿透
+        //2. 商户不存在，向redis中存入null值，避免缓存穿透
         if (r == null) {
+            if (!cacheNull) {
+                return null;
+            }
             //存储null值，默认 2分钟
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setBytes(key, new byte[0], expiration(key, CACHE_NULL_TTL, TimeUnit.MINUTES), token);
             return null;
         }
 
-        //5. 商户存在，写入redis,并设置超时时间，30分钟
-        this.set(key, r, time, timeUnit);
+        //3. 商户存在，写入redis,并设置超时时间，30分钟
+        this.set(key, r, time, timeUnit, token);
         //log.info("将数据库数据写入缓存");
-
-        //6. 将信息返回给前端
         return r;
     }
 
 
 
-    //创建一个线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
-
     /**
      *   不考虑缓存穿透问题
      *   逻辑过期解决缓存击穿
@@ -145,80 +674,109 @@ public class CacheClient {
      */
     public <R, ID> R queryWithLogicalExpire(String logicPre, String lockPre, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
         String key = logicPre + id;
-        //1. 从redis中查询店铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-
-        //2. 缓存未命中，返回错误
-        if (StrUtil.isBlank(json)) {
-            //log.info("缓存未命中！");
-            return null;
+        //0. 先查本地缓存，本地缓存中存的是已经解析好的RedisData，不用重复解码
+        RedisData redisData = (RedisData) localCache.get(logicPre, key);
+        if (redisData == null) {
+            //0.1 布隆过滤器判断id一定不存在，不再访问Redis
+            if (!bloomFilters.mightContainByPrefix(logicPre, id)) {
+                return null;
+            }
+            //1. 从redis中查询店铺缓存
+            byte[] bytes = getBytes(key);
+
+            //2. 缓存未命中，返回错误
+            if (bytes == null || bytes.length == 0) {
+                //log.info("缓存未命中！");
+                return null;
+            }
+            try {
+                redisData = codecs.decodeLogic(bytes, type);
+            } catch (Exception e) {
+                //2.1 类结构变化或数据损坏，本次查询数据库，同时提交重建任务覆盖旧数据
+                log.warn("缓存解码失败，重建缓存：{}", key, e);
+                rebuildLogic(key, lockPre + id, id, dbFallback, time, timeUnit);
+                return dbFallback.apply(id);
+            }
+            localCache.put(key, redisData, bytes.length);
         }
 
         //3 缓存命中，判断缓存是否过期
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
         //获取存活时间
         LocalDateTime expireTime = redisData.getExpireTime();
         //获取商户信息
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        R r = type.cast(redisData.getData());
+        //记录访问，热key会在过期前被后台提前刷新
+        refreshAhead.recordAccess(key, expireTime, () -> rebuildLogic(key, lockPre + id, id, dbFallback, time, timeUnit));
         //3.1 缓存未过期，返回店铺信息
         // isAfter 存活时间在当前时间之后，说明没有过期
         if (expireTime.isAfter(LocalDateTime.now())) {
             //log.info("缓存没有过期！");
             return r;
         }
-        //3.2 缓存过期，尝试获取互斥锁
+        //3.2 缓存过期，提交重建任务
         //log.info("缓存过期！");
-        String lockKey = lockPre + id;
-        //锁的时间默认为 10S
-        boolean isLock = tryGetLock(lockKey, LOCK_SHOP_TTL);
-
-
-        //4. 互斥锁获取
-        //4.1 key 成功，开启独立线程
-        if (isLock) {
-            //log.info("获取锁成功！");
-            //5. 独立线程
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                //log.info("开启独立线程");
-                //重建缓存,是否锁
-                try {
-                    //5.1 查询数据库
-                    //5.2 数据写入Redis,并设置逻辑过期时间
-                    saveObject2Redis(lockKey, id, dbFallback, time, timeUnit);
-                   //log.info("更新缓存信息成功！");
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    //5.3 释放互斥锁
-                    unLock(lockKey);
-                }
-            });
-        }
-        //4.2 成功+失败，返回-旧的-信息
+        rebuildLogic(key, lockPre + id, id, dbFallback, time, timeUnit);
+        //4. 无论是否提交成功，都返回-旧的-信息
         return r;
     }
 
 
+    /**
+     *  提交逻辑过期缓存的重建任务
+     *
+     *  1. 本结点内同一个key只会提交一次(线程池按key去重)，重复的提交直接丢弃
+     *  2. 在重建线程中获取Redis互斥锁，保证多个结点只有一个重建，不占用请求线程
+     *  3. 查询数据库，写入Redis并设置逻辑过期时间，写入时带上获取锁时得到的 fencing token
+     *  4. 释放互斥锁，只删除自己的锁
+     *
+     * @param logicKey 逻辑过期缓存的key
+     * @param lockKey 互斥锁的key
+     * @param id 缓存id
+     * @param dbFallback 查询数据库的逻辑
+     * @param time 逻辑过期时间
+     * @param timeUnit 时间单位
+     * @return 是否提交成功
+     */
+    public <R, ID> boolean rebuildLogic(String logicKey, String lockKey, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        return rebuildExecutor.submit(logicKey, () -> {
+            //1. 获取互斥锁，锁的时间默认为 10S；失败说明其他结点正在重建
+            long token = tryGetLock(lockKey, LOCK_SHOP_TTL);
+            if (token == 0) {
+                return;
+            }
+            try {
+                //2. 查询数据库，数据写入Redis,并设置逻辑过期时间；锁已经过期并被其他线程获取时写入被拒绝
+                saveObject2Redis(logicKey, id, dbFallback, time, timeUnit, token);
+            } finally {
+                //3. 释放互斥锁
+                unLock(lockKey, token);
+            }
+        });
+    }
+
+
 
     /**
-     * 获取互斥锁
+     * 获取互斥锁，同时得到一个单调递增的 fencing token
+     * 锁的值就是token；同一个锁后获取的持有者token一定更大
      * @param redisKey 加锁的键值
-     * @param timeOut ttl有效期
-     * @return 成功返回true，失败返回false
+     * @param timeOut ttl有效期，秒
+     * @return token，获取失败返回0
      */
-    private boolean tryGetLock(String redisKey, Long timeOut) {
-        // 通过 setnx 设置 锁 lock, 设置过期时间为10秒钟
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(redisKey, "1", timeOut, TimeUnit.SECONDS);
-        // tool 利用工具类自动 拆箱
-        return BooleanUtil.isTrue(flag);
+    private long tryGetLock(String redisKey, Long timeOut) {
+        Long token = redisScripts.execute(LuaScript.FENCED_LOCK,
+                Arrays.asList(redisKey, LOCK_FENCE_KEY + RedisScripts.hashTag(redisKey)), TimeUnit.SECONDS.toMillis(timeOut));
+        return token == null ? 0 : token;
     }
 
     /**
-     * 删除互斥锁
+     * 删除互斥锁，锁的值与token一致时才删除
+     * 锁过期后可能已经被其他线程获取，直接 DEL 会删除别人的锁
      * @param redisKey 删除锁的键值
+     * @param token 获取锁时得到的token
      */
-    private void unLock(String redisKey) {
-        stringRedisTemplate.delete(redisKey);
+    private void unLock(String redisKey, long token) {
+        redisScripts.execute(LuaScript.UNLOCK, Collections.singletonList(redisKey), token);
     }
 
 
@@ -229,19 +787,22 @@ public class CacheClient {
      * @param dbFallback 函数式编程，数据库操作
      * @param expireTime 逻辑存活时间
      * @param timeUnit 时间单位
+     * @param token 获取互斥锁时得到的 fencing token
      * @param <R> 实体类对象
      * @param <ID> id 类型
-     * @throws InterruptedException 延时异常
      */
-    private  <R, ID> void saveObject2Redis(String logicKey, ID id, Function<ID, R> dbFallback, Long expireTime, TimeUnit timeUnit) throws InterruptedException {
+    private  <R, ID> void saveObject2Redis(String logicKey, ID id, Function<ID, R> dbFallback, Long expireTime, TimeUnit timeUnit, long token) {
         //查数据库
         R r = dbFallback.apply(id);
 
-        //模拟缓存延时
-        Thread.sleep(200);
+        //数据已经被删除，删除缓存
+        if (r == null) {
+            this.delete(logicKey);
+            return;
+        }
 
         //存入缓存,并设置逻辑过期时间
-        this.setLogic(logicKey + id, r, expireTime, timeUnit);
-
+        //logicKey 已经是完整的key，不能再拼接id
+        this.setLogic(logicKey, r, expireTime, timeUnit, token);
     }
 }
@@ -0,0 +1,389 @@
+package com.xzdp.utils.Redis.Codec;
+
+import com.xzdp.dto.RedisData;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 紧凑的二进制编解码
+ *
+ *  格式： 魔数(1) | 版本(1) | 标志(1) | 类结构哈希(4) | [逻辑过期时间毫秒(8)] | 数据
+ *  1. 魔数 0xB1 在UTF-8中不可能是第一个字节，以此区分json和二进制，两种格式可以同时存在
+ *  2. 每个类第一次使用时，通过反射生成字段的编解码器并缓存，之后不再解析类结构
+ *  3. 数据部分：字段是否为null的位图 + 按字段名排序依次写入的字段值，不写字段名
+ *  4. 数据超过阈值时使用 Deflater(最快速度)压缩，压缩后更小才使用
+ *  5. 类结构(字段名和类型)发生变化时哈希不一致，解码失败，调用方按未命中处理
+ *
+ *  类中存在不支持的字段类型时，自动退回json格式
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final byte MAGIC = (byte) 0xB1;
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_LOGIC = 1 << 1;
+
+    /**
+     * 数据超过该字节数时尝试压缩
+     */
+    private static final int COMPRESS_THRESHOLD = 512;
+
+    /**
+     * 解压后允许的最大字节数，超过说明长度已损坏，避免按损坏的长度分配内存
+     */
+    private static final int MAX_DECOMPRESSED_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 创建 Deflater/Inflater 需要分配本地内存，开销较大，每个线程复用一个
+     */
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    /**
+     * 每个类的序列化器，第一次使用时生成
+     */
+    private final Map<Class<?>, ClassSerializer> serializers = new ConcurrentHashMap<>();
+
+    /**
+     * 判断字节数组是否是二进制格式
+     * @param bytes 字节数组
+     * @return true 二进制格式
+     */
+    public static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object object) {
+        ClassSerializer serializer = serializerOf(object.getClass());
+        if (!serializer.supported) {
+            return json.encode(object);
+        }
+        return write(serializer, object, 0, 0);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        ByteBuf in = readHeader(bytes, type, false);
+        return type.cast(readData(in, serializerOf(type), bytes[2]));
+    }
+
+    @Override
+    public byte[] encodeLogic(RedisData redisData) {
+        Object data = redisData.getData();
+        ClassSerializer serializer = serializerOf(data.getClass());
+        if (!serializer.supported) {
+            return json.encodeLogic(redisData);
+        }
+        long expireMillis = redisData.getExpireTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+        return write(serializer, data, FLAG_LOGIC, expireMillis);
+    }
+
+    @Override
+    public RedisData decodeLogic(byte[] bytes, Class<?> type) {
+        ByteBuf in = readHeader(bytes, type, true);
+        long expireMillis = in.readLong();
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofEpochSecond(
+                Math.floorDiv(expireMillis, 1000), (int) Math.floorMod(expireMillis, 1000) * 1000000, ZoneOffset.UTC));
+        redisData.setData(readData(in, serializerOf(type), bytes[2]));
+        return redisData;
+    }
+
+    private ClassSerializer serializerOf(Class<?> type) {
+        return serializers.computeIfAbsent(type, ClassSerializer::new);
+    }
+
+    private byte[] write(ClassSerializer serializer, Object object, int flags, long expireMillis) {
+        ByteBuf body = new ByteBuf(128);
+        serializer.write(body, object);
+        byte[] data = body.toBytes();
+
+        //数据较大时压缩
+        if (data.length > COMPRESS_THRESHOLD) {
+            byte[] compressed = compress(data);
+            if (compressed != null) {
+                data = compressed;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+
+        ByteBuf out = new ByteBuf(data.length + 16);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        out.writeInt(serializer.schemaHash);
+        if ((flags & FLAG_LOGIC) != 0) {
+            out.writeLong(expireMillis);
+        }
+        out.writeBytes(data);
+        return out.toBytes();
+    }
+
+    /**
+     * 校验头部，返回定位到头部之后的缓冲区
+     */
+    private ByteBuf readHeader(byte[] bytes, Class<?> type, boolean logic) {
+        if (bytes.length < 7 || bytes[0] != MAGIC || bytes[1] != VERSION) {
+            throw new IllegalStateException("不支持的缓存格式");
+        }
+        if (((bytes[2] & FLAG_LOGIC) != 0) != logic) {
+            throw new IllegalStateException("缓存类型不匹配");
+        }
+        ByteBuf in = new ByteBuf(bytes, 3);
+        if (in.readInt() != serializerOf(type).schemaHash) {
+            throw new IllegalStateException("缓存的类结构已变化：" + type.getName());
+        }
+        return in;
+    }
+
+    private Object readData(ByteBuf in, ClassSerializer serializer, int flags) {
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            in = new ByteBuf(decompress(in), 0);
+        }
+        return serializer.read(in);
+    }
+
+    /**
+     * 压缩，格式：原始长度 + 压缩数据
+     * @return 压缩后没有变小返回null
+     */
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteBuf out = new ByteBuf(data.length / 2 + 16);
+            out.writeVarLong(data.length);
+            byte[] chunk = new byte[1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.writeBytes(n == chunk.length ? chunk : Arrays.copyOf(chunk, n));
+            }
+            return out.position() < data.length ? out.toBytes() : null;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * 解压；数据被截断或损坏时抛出异常，由调用方按未命中处理
+     */
+    private static byte[] decompress(ByteBuf in) {
+        long length = in.readVarLong();
+        if (length < 0 || length > MAX_DECOMPRESSED_SIZE) {
+            throw new IllegalStateException("缓存数据已损坏，解压长度：" + length);
+        }
+        Inflater inflater = INFLATER.get();
+        try {
+            inflater.setInput(in.remaining());
+            byte[] data = new byte[(int) length];
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int read = inflater.inflate(data, n, data.length - n);
+                //输入已经读完或者需要字典，继续循环不会有进展
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("缓存数据已损坏，压缩数据不完整");
+                }
+                n += read;
+            }
+            if (n != length) {
+                throw new IllegalStateException("缓存数据已损坏，解压长度不一致");
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("缓存数据已损坏", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+
+    /**
+     * 单个字段的编解码
+     */
+    private interface FieldCodec {
+        void write(ByteBuf out, Object value);
+
+        Object read(ByteBuf in);
+    }
+
+    /**
+     * 支持的字段类型
+     */
+    private static final Map<Class<?>, FieldCodec> CODECS = new HashMap<>();
+
+    static {
+        FieldCodec longCodec = codec((out, v) -> out.writeVarLong((Long) v), ByteBuf::readVarLong);
+        FieldCodec intCodec = codec((out, v) -> out.writeVarLong((Integer) v), in -> (int) in.readVarLong());
+        FieldCodec shortCodec = codec((out, v) -> out.writeVarLong((Short) v), in -> (short) in.readVarLong());
+        FieldCodec byteCodec = codec((out, v) -> out.writeByte((Byte) v), in -> (byte) in.readByte());
+        FieldCodec boolCodec = codec((out, v) -> out.writeByte((Boolean) v ? 1 : 0), in -> in.readByte() == 1);
+        FieldCodec doubleCodec = codec((out, v) -> out.writeLong(Double.doubleToLongBits((Double) v)),
+                in -> Double.longBitsToDouble(in.readLong()));
+        FieldCodec floatCodec = codec((out, v) -> out.writeInt(Float.floatToIntBits((Float) v)),
+                in -> Float.intBitsToFloat(in.readInt()));
+        CODECS.put(Long.class, longCodec);
+        CODECS.put(long.class, longCodec);
+        CODECS.put(Integer.class, intCodec);
+        CODECS.put(int.class, intCodec);
+        CODECS.put(Short.class, shortCodec);
+        CODECS.put(short.class, shortCodec);
+        CODECS.put(Byte.class, byteCodec);
+        CODECS.put(byte.class, byteCodec);
+        CODECS.put(Boolean.class, boolCodec);
+        CODECS.put(boolean.class, boolCodec);
+        CODECS.put(Double.class, doubleCodec);
+        CODECS.put(double.class, doubleCodec);
+        CODECS.put(Float.class, floatCodec);
+        CODECS.put(float.class, floatCodec);
+        CODECS.put(String.class, codec((out, v) -> out.writeString((String) v), ByteBuf::readString));
+        CODECS.put(BigDecimal.class, codec((out, v) -> out.writeString(v.toString()), in -> new BigDecimal(in.readString())));
+        CODECS.put(LocalDate.class, codec((out, v) -> out.writeVarLong(((LocalDate) v).toEpochDay()),
+                in -> LocalDate.ofEpochDay(in.readVarLong())));
+        CODECS.put(LocalDateTime.class, codec((out, v) -> {
+            LocalDateTime time = (LocalDateTime) v;
+            out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeVarLong(time.getNano());
+        }, in -> LocalDateTime.ofEpochSecond(in.readVarLong(), (int) in.readVarLong(), ZoneOffset.UTC)));
+    }
+
+    private interface Writer {
+        void write(ByteBuf out, Object value);
+    }
+
+    private interface Reader {
+        Object read(ByteBuf in);
+    }
+
+    private static FieldCodec codec(Writer writer, Reader reader) {
+        return new FieldCodec() {
+            @Override
+            public void write(ByteBuf out, Object value) {
+                writer.write(out, value);
+            }
+
+            @Override
+            public Object read(ByteBuf in) {
+                return reader.read(in);
+            }
+        };
+    }
+
+
+    /**
+     * 某个类的序列化器，创建时解析一次类结构
+     */
+    private static class ClassSerializer {
+
+        /**
+         * 类中的字段是否全部支持
+         */
+        final boolean supported;
+
+        /**
+         * 类结构哈希：字段名 + 字段类型
+         */
+        final int schemaHash;
+
+        private Constructor<?> constructor;
+        private final Field[] fields;
+        private final FieldCodec[] codecs;
+
+        ClassSerializer(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int mod = field.getModifiers();
+                    if (!Modifier.isStatic(mod) && !Modifier.isTransient(mod)) {
+                        list.add(field);
+                    }
+                }
+            }
+            // 按字段名排序，保证不同结点上的顺序一致
+            list.sort(Comparator.comparing(Field::getName));
+
+            boolean ok = true;
+            StringBuilder schema = new StringBuilder(type.getName());
+            fields = list.toArray(new Field[0]);
+            codecs = new FieldCodec[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                codecs[i] = CODECS.get(fields[i].getType());
+                ok &= codecs[i] != null;
+                schema.append(';').append(fields[i].getName()).append(':').append(fields[i].getType().getName());
+            }
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                for (Field field : fields) {
+                    field.setAccessible(true);
+                }
+            } catch (Exception e) {
+                ok = false;
+            }
+            supported = ok;
+            schemaHash = schema.toString().hashCode();
+        }
+
+        void write(ByteBuf out, Object object) {
+            try {
+                //1. null值位图
+                Object[] values = new Object[fields.length];
+                byte[] nulls = new byte[(fields.length + 7) / 8];
+                for (int i = 0; i < fields.length; i++) {
+                    values[i] = fields[i].get(object);
+                    if (values[i] == null) {
+                        nulls[i >>> 3] |= (byte) (1 << (i & 7));
+                    }
+                }
+                out.writeBytes(nulls);
+                //2. 依次写入非null字段
+                for (int i = 0; i < fields.length; i++) {
+                    if (values[i] != null) {
+                        codecs[i].write(out, values[i]);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Object read(ByteBuf in) {
+            try {
+                Object object = constructor.newInstance();
+                byte[] nulls = new byte[(fields.length + 7) / 8];
+                for (int i = 0; i < nulls.length; i++) {
+                    nulls[i] = (byte) in.readByte();
+                }
+                for (int i = 0; i < fields.length; i++) {
+                    if ((nulls[i >>> 3] & (1 << (i & 7))) == 0) {
+                        fields[i].set(object, codecs[i].read(in));
+                    }
+                }
+                return object;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+}
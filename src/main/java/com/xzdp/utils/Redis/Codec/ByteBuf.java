@@ -0,0 +1,156 @@
+package com.xzdp.utils.Redis.Codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 二进制编解码使用的字节缓冲区
+ *  整数使用 zigzag + 变长编码，小数字只占1~2个字节
+ *  字符串使用 长度 + UTF-8 字节
+ */
+public class ByteBuf {
+
+    private byte[] buf;
+
+    /**
+     * 写入时表示已写入的长度，读取时表示读取位置
+     */
+    private int pos;
+
+    /**
+     * 读取时的上限
+     */
+    private final int limit;
+
+    /**
+     * 创建用于写入的缓冲区
+     * @param capacity 初始容量
+     */
+    public ByteBuf(int capacity) {
+        this.buf = new byte[capacity];
+        this.limit = Integer.MAX_VALUE;
+    }
+
+    /**
+     * 创建用于读取的缓冲区
+     * @param bytes 数据
+     * @param offset 开始读取的位置
+     */
+    public ByteBuf(byte[] bytes, int offset) {
+        this.buf = bytes;
+        this.pos = offset;
+        this.limit = bytes.length;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * @return 已写入的字节
+     */
+    public byte[] toBytes() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * @return 从当前读取位置到末尾的字节
+     */
+    public byte[] remaining() {
+        return Arrays.copyOfRange(buf, pos, limit);
+    }
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+
+    public void writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    public void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    public void writeInt(int v) {
+        ensure(4);
+        buf[pos++] = (byte) (v >>> 24);
+        buf[pos++] = (byte) (v >>> 16);
+        buf[pos++] = (byte) (v >>> 8);
+        buf[pos++] = (byte) v;
+    }
+
+    public void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    /**
+     * zigzag + 变长编码，负数也只占较少的字节
+     */
+    public void writeVarLong(long v) {
+        long z = (v << 1) ^ (v >> 63);
+        ensure(10);
+        while ((z & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((z & 0x7F) | 0x80);
+            z >>>= 7;
+        }
+        buf[pos++] = (byte) z;
+    }
+
+    public void writeString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        writeBytes(bytes);
+    }
+
+    private void check(int n) {
+        if (pos + n > limit) {
+            throw new IllegalStateException("缓存数据已损坏");
+        }
+    }
+
+    public int readByte() {
+        check(1);
+        return buf[pos++] & 0xFF;
+    }
+
+    public int readInt() {
+        check(4);
+        return (buf[pos++] & 0xFF) << 24 | (buf[pos++] & 0xFF) << 16 | (buf[pos++] & 0xFF) << 8 | (buf[pos++] & 0xFF);
+    }
+
+    public long readLong() {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    public long readVarLong() {
+        long z = 0;
+        int shift = 0;
+        while (true) {
+            int b = readByte();
+            z |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IllegalStateException("缓存数据已损坏");
+            }
+        }
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    public String readString() {
+        int len = (int) readVarLong();
+        check(len);
+        String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+        pos += len;
+        return s;
+    }
+}
@@ -0,0 +1,41 @@
+package com.xzdp.utils.Redis.Codec;
+
+import com.xzdp.dto.RedisData;
+
+/**
+ * 缓存值的编解码
+ *  负责实体类和Redis中字节数组之间的互相转换
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通缓存值
+     * @param object 实体类对象
+     * @return 字节数组
+     */
+    byte[] encode(Object object);
+
+    /**
+     * 解码普通缓存值
+     * @param bytes 字节数组
+     * @param type 实体类类型
+     * @param <R> 实体类类型
+     * @return 实体类对象
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 编码带逻辑过期时间的缓存值
+     * @param redisData 数据 + 逻辑过期时间
+     * @return 字节数组
+     */
+    byte[] encodeLogic(RedisData redisData);
+
+    /**
+     * 解码带逻辑过期时间的缓存值
+     * @param bytes 字节数组
+     * @param type 原始数据的类型
+     * @return RedisData，其中的data已经转换成 type 类型
+     */
+    RedisData decodeLogic(byte[] bytes, Class<?> type);
+}
@@ -0,0 +1,48 @@
+package com.xzdp.utils.Redis.Codec;
+
+import com.xzdp.dto.RedisData;
+import org.springframework.stereotype.Component;
+
+import static com.xzdp.utils.Constants.RedisConstants.CACHE_WRITE_BINARY;
+
+/**
+ * 缓存编解码的入口
+ *
+ *  1. 写入时按配置选择json或二进制格式
+ *  2. 读取时根据第一个字节自动识别格式，两种格式可以同时存在，支持平滑切换和回滚
+ */
+@Component
+public class CacheCodecs implements CacheCodec {
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    private final BinaryCacheCodec binary = new BinaryCacheCodec();
+
+    private CacheCodec writer() {
+        return CACHE_WRITE_BINARY ? binary : json;
+    }
+
+    private CacheCodec reader(byte[] bytes) {
+        return BinaryCacheCodec.isBinary(bytes) ? binary : json;
+    }
+
+    @Override
+    public byte[] encode(Object object) {
+        return writer().encode(object);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        return reader(bytes).decode(bytes, type);
+    }
+
+    @Override
+    public byte[] encodeLogic(RedisData redisData) {
+        return writer().encodeLogic(redisData);
+    }
+
+    @Override
+    public RedisData decodeLogic(byte[] bytes, Class<?> type) {
+        return reader(bytes).decodeLogic(bytes, type);
+    }
+}
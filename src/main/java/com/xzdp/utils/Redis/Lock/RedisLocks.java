@@ -0,0 +1,245 @@
+package com.xzdp.utils.Redis.Lock;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.xzdp.utils.Redis.Script.LuaScript;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.xzdp.utils.Constants.RedisConstants.LOCK_CHANNEL_PREFIX;
+import static com.xzdp.utils.Constants.RedisConstants.LOCK_WATCHDOG_TIMEOUT;
+
+/**
+ * 可重入锁的工厂，替代 RedissonClient.getLock
+ *
+ *  所有锁共用：
+ *  1. 结点标识，与线程id一起作为锁的持有者
+ *  2. 一个看门狗线程，每隔 1/3 过期时间为本结点持有的锁续期；锁已经不是自己的时停止续期
+ *  3. 锁释放的通知：同一个锁的等待线程共用一个订阅，没有等待线程时取消订阅
+ */
+@Slf4j
+@Component
+public class RedisLocks {
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 结点标识，每次启动都不同
+     */
+    private final String clientId = UUID.randomUUID().toString(true);
+
+    /**
+     * 需要看门狗续期的锁：锁的key + 持有者
+     */
+    private final Set<Holder> watched = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 锁释放的订阅，频道 -> 订阅
+     */
+    private final Map<String, Subscription> subscriptions = new HashMap<>();
+
+    private final LongAdder renewed = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+
+    private final ScheduledExecutorService WATCHDOG_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("lock-watchdog-", true));
+
+    @PostConstruct
+    private void init() {
+        long period = LOCK_WATCHDOG_TIMEOUT / 3;
+        WATCHDOG_EXECUTOR.scheduleWithFixedDelay(this::renewAll, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        WATCHDOG_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 获取一把可重入锁，对象很轻，每次使用时创建即可
+     * @param key 锁的key
+     * @return 可重入锁
+     */
+    public ReentrantRedisLock getLock(String key) {
+        return new ReentrantRedisLock(key, this);
+    }
+
+    /**
+     * 当前线程的持有者标识
+     */
+    String owner() {
+        return clientId + ":" + Thread.currentThread().getId();
+    }
+
+    /**
+     * 获取锁
+     * @return 0 成功；否则为锁的剩余毫秒
+     */
+    long tryAcquire(String key, String owner, long leaseMillis) {
+        Long ttl = redisScripts.execute(LuaScript.LOCK, Collections.singletonList(key), owner, leaseMillis);
+        return ttl == null ? 0 : ttl;
+    }
+
+    /**
+     * 释放锁，完全释放时通知等待的线程
+     * @return 剩余的重入次数；不是自己的锁返回-1
+     */
+    long release(String key, String owner) {
+        Long count = redisScripts.execute(LuaScript.LOCK_RELEASE, Collections.singletonList(key),
+                owner, LOCK_CHANNEL_PREFIX + key);
+        return count == null ? -1 : count;
+    }
+
+    /**
+     * 交给看门狗续期
+     */
+    void watch(String key, String owner) {
+        watched.add(new Holder(key, owner));
+    }
+
+    /**
+     * 停止续期
+     */
+    void unwatch(String key, String owner) {
+        watched.remove(new Holder(key, owner));
+    }
+
+    /**
+     * 看门狗：为所有持有的锁续期，续期失败的锁不再续期
+     */
+    private void renewAll() {
+        for (Holder holder : watched) {
+            try {
+                Long ok = redisScripts.execute(LuaScript.LOCK_RENEW, Collections.singletonList(holder.key),
+                        holder.owner, LOCK_WATCHDOG_TIMEOUT);
+                if (ok != null && ok == 1) {
+                    renewed.increment();
+                } else {
+                    watched.remove(holder);
+                    lost.increment();
+                    log.warn("锁已经不再由本结点持有，停止续期：{}", holder.key);
+                }
+            } catch (Exception e) {
+                // Redis暂时不可用，下次继续续期
+                log.warn("锁续期失败：{}，{}", holder.key, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 订阅锁释放的通知，同一个锁的等待线程共用一个订阅
+     * @param key 锁的key
+     * @return 订阅，等待结束后必须调用 unsubscribe
+     */
+    synchronized Subscription subscribe(String key) {
+        String channel = LOCK_CHANNEL_PREFIX + key;
+        Subscription subscription = subscriptions.get(channel);
+        if (subscription == null) {
+            subscription = new Subscription(channel);
+            listenerContainer.addMessageListener(subscription.listener, subscription.topic);
+            subscriptions.put(channel, subscription);
+        }
+        subscription.refs++;
+        return subscription;
+    }
+
+    /**
+     * 取消订阅，最后一个等待线程离开时取消Redis的订阅
+     */
+    synchronized void unsubscribe(Subscription subscription) {
+        if (--subscription.refs == 0) {
+            subscriptions.remove(subscription.topic.getTopic());
+            listenerContainer.removeMessageListener(subscription.listener, subscription.topic);
+        }
+    }
+
+    /**
+     * 运行指标
+     * @return 续期中的锁、续期次数、丢失的锁和订阅数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("watched", watched.size());
+        res.put("renewed", renewed.sum());
+        res.put("lost", lost.sum());
+        synchronized (this) {
+            res.put("subscriptions", subscriptions.size());
+        }
+        return res;
+    }
+
+    /**
+     * 一个锁的订阅：收到释放通知时唤醒一个等待线程
+     */
+    static final class Subscription {
+        private final ChannelTopic topic;
+        private final Semaphore semaphore = new Semaphore(0);
+        private final MessageListener listener;
+        private int refs;
+
+        private Subscription(String channel) {
+            this.topic = new ChannelTopic(channel);
+            this.listener = (message, pattern) -> semaphore.release();
+        }
+
+        /**
+         * 等待释放通知，最多等待 millis
+         */
+        boolean await(long millis) throws InterruptedException {
+            return semaphore.tryAcquire(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 锁的key + 持有者
+     */
+    private static final class Holder {
+        private final String key;
+        private final String owner;
+
+        private Holder(String key, String owner) {
+            this.key = key;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Holder)) {
+                return false;
+            }
+            Holder h = (Holder) o;
+            return key.equals(h.key) && owner.equals(h.owner);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + owner.hashCode();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.xzdp.utils.Redis.Lock;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.xzdp.utils.Constants.RedisConstants.LOCK_WATCHDOG_TIMEOUT;
+
+/**
+ * 可重入的Redis分布式锁，由 RedisLocks 创建
+ *
+ *  SimpleRedisLock 使用 String 保存持有者，同一个线程再次获取会失败；过期时间固定，业务执行太久时锁会提前释放
+ *  1. 锁是一个hash：field 为持有者(结点标识:线程id)，value 为重入次数；获取和释放都在lua脚本中完成
+ *  2. 不指定过期时间时，交给看门狗续期，直到完全释放；结点宕机后锁在 LOCK_WATCHDOG_TIMEOUT 之后过期
+ *  3. lock(wait) 获取失败时订阅锁释放的通知，收到通知或者锁的剩余时间到了再重试，不轮询
+ */
+public class ReentrantRedisLock implements ILock {
+
+    private final String key;
+
+    private final RedisLocks locks;
+
+    ReentrantRedisLock(String key, RedisLocks locks) {
+        this.key = key;
+        this.locks = locks;
+    }
+
+    /**
+     * 尝试获取锁，不等待，使用固定的过期时间，不续期
+     * @param timeoutSec 锁的过期时间
+     * @return 是否获取成功
+     */
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        return locks.tryAcquire(key, locks.owner(), TimeUnit.SECONDS.toMillis(timeoutSec)) == 0;
+    }
+
+    /**
+     * 尝试获取锁，不等待，由看门狗续期
+     * @return 是否获取成功
+     */
+    public boolean tryLock() {
+        String owner = locks.owner();
+        if (locks.tryAcquire(key, owner, LOCK_WATCHDOG_TIMEOUT) != 0) {
+            return false;
+        }
+        locks.watch(key, owner);
+        return true;
+    }
+
+    /**
+     * 获取锁，锁被占用时等待释放的通知，由看门狗续期
+     * @param wait 最长等待时间
+     * @param unit 时间单位
+     * @return 是否获取成功；超时返回false
+     * @throws InterruptedException 等待时被中断
+     */
+    public boolean lock(long wait, TimeUnit unit) throws InterruptedException {
+        //1. 先尝试一次，大多数情况下不需要订阅
+        if (tryLock()) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + unit.toMillis(wait);
+        //2. 订阅锁释放的通知，之后再重试，避免错过订阅之前的释放
+        RedisLocks.Subscription subscription = locks.subscribe(key);
+        try {
+            String owner = locks.owner();
+            while (true) {
+                long ttl = locks.tryAcquire(key, owner, LOCK_WATCHDOG_TIMEOUT);
+                if (ttl == 0) {
+                    locks.watch(key, owner);
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                //3. 等到释放通知，或者锁过期
+                subscription.await(Math.min(ttl, remaining));
+            }
+        } finally {
+            locks.unsubscribe(subscription);
+        }
+    }
+
+    /**
+     * 释放一次，重入次数减到0时删除锁并通知等待的线程
+     * @throws IllegalMonitorStateException 锁不是当前线程持有的(可能已经过期)
+     */
+    @Override
+    public void unlock() {
+        String owner = locks.owner();
+        long count = locks.release(key, owner);
+        if (count <= 0) {
+            locks.unwatch(key, owner);
+        }
+        if (count < 0) {
+            throw new IllegalMonitorStateException("锁不是当前线程持有的：" + key);
+        }
+    }
+}
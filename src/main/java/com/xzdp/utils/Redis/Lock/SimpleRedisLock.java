@@ -1,9 +1,9 @@
 package com.xzdp.utils.Redis.Lock;
 
 import cn.hutool.core.lang.UUID;
-import org.springframework.core.io.ClassPathResource;
+import com.xzdp.utils.Redis.Script.LuaScript;
+import com.xzdp.utils.Redis.Script.RedisScripts;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
@@ -18,6 +18,11 @@ public class SimpleRedisLock implements ILock {
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * lua脚本的注册中心
+     */
+    private final RedisScripts redisScripts;
+
     /**
      * 加锁或者释放锁的键
      */
@@ -27,10 +32,12 @@ public class SimpleRedisLock implements ILock {
      *  使用构造函数 给stringRedisTemplate赋值
      *  当然也可以加入Spring， 由容器管理，然后自动注入
      * @param stringRedisTemplate redisAPI
+     * @param redisScripts lua脚本的注册中心
      */
-    public SimpleRedisLock(String redisKey, StringRedisTemplate stringRedisTemplate) {
+    public SimpleRedisLock(String redisKey, StringRedisTemplate stringRedisTemplate, RedisScripts redisScripts) {
         this.redisKey = redisKey;
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScripts = redisScripts;
     }
 
 
@@ -40,23 +47,6 @@ public class SimpleRedisLock implements ILock {
     private static final String  ID_PREFIX = UUID.randomUUID().toString(true) + "-";
 
 
-    /**
-     * Redis 脚本
-     * 返回值Long类型
-     * 以静态代码块注入
-     * key 将lua脚本以静态代码块的方式 写在类中，这样lua脚本读取的io流只需要一次，性能较高
-     */
-    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
-    static {
-        UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        //spring 提供的ClassPathResource，默认文件夹是 resources文件
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
-        // 设置返回值类型 为Long类型
-        UNLOCK_SCRIPT.setResultType(Long.class);
-    }
-
-
-
     /**
      *  尝试获取锁
      *  键为 用户传递
@@ -80,13 +70,13 @@ public class SimpleRedisLock implements ILock {
     /**
      * 调用lua脚本执行
      * 判断锁和删除锁 具有原子性
-     *
+     * 脚本在启动时已经预加载，只发送SHA1
      */
     @Override
     public void unlock() {
         // 调用lua脚本
-        stringRedisTemplate.execute(
-                UNLOCK_SCRIPT,
+        redisScripts.execute(
+                LuaScript.UNLOCK,
                 Collections.singletonList(redisKey),
                 ID_PREFIX + Thread.currentThread().getId());
     }
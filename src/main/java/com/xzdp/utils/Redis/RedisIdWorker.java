@@ -1,17 +1,40 @@
 package com.xzdp.utils.Redis;
 
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.xzdp.utils.Constants.RedisConstants.ID_SEGMENT_PREFETCH;
+import static com.xzdp.utils.Constants.RedisConstants.ID_SEGMENT_STEP;
 
 /**
  * 使用Redis实现全局唯一id
  * key 时间操作API + 位运算
+ *
+ *  id 的格式：高31位为时间戳(秒)，低32位为当天的序列号
+ *  号段模式(ID_SEGMENT_STEP > 0)：
+ *  1. 每个结点通过一次 INCRBY 从当天的计数器中预领一段序列号，在本地用 AtomicLong 分配，不再每个id访问一次Redis
+ *  2. 当前号段用掉一定比例后，异步预领下一段，用完时直接切换
+ *  3. 换天时丢弃旧的号段，从新一天的计数器中预领
+ *  序列号在同一天内仍然全局唯一，id 格式不变；代价是结点重启时没用完的序列号被跳过，计数器不再等于当天的订单数
  */
+@Slf4j
 @Component
 public class RedisIdWorker {
 
@@ -27,12 +50,58 @@ public class RedisIdWorker {
      */
     private static final long COUNT_BITS = 32;
 
+    /**
+     * 计数器key中的日期格式，只创建一次
+     */
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final long SECONDS_PER_DAY = 86400L;
 
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 业务前缀 -> 当前的号段
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 异步预领号段
+     */
+    private final ExecutorService SEGMENT_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("id-segment-", true));
+
+    /**
+     * 当前这一天，换天时重新计算
+     */
+    private volatile Day today = Day.of(System.currentTimeMillis() / 1000);
+
+    @PreDestroy
+    private void destroy() {
+        SEGMENT_EXECUTOR.shutdownNow();
+    }
+
     public long nextId(String keyPrefix) {
+        if (ID_SEGMENT_STEP <= 0) {
+            return nextIdByIncr(keyPrefix);
+        }
+        //1.生成时间戳，与 LocalDateTime.now().toEpochSecond(UTC) 相同，但不创建对象
+        long epochSecond = System.currentTimeMillis() / 1000;
+        Day day = today(epochSecond);
+        long timestamp = epochSecond + day.offsetSeconds - BEGIN_TIME;
+
+        //2. 从本地号段中分配序列号
+        long count = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(day);
+
+        //3. 拼接并返回
+        return timestamp << COUNT_BITS | count;
+    }
+
+    /**
+     * 每个id执行一次 INCR
+     */
+    private long nextIdByIncr(String keyPrefix) {
         //1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         //借助API 生成 long型id
@@ -42,7 +111,7 @@ public class RedisIdWorker {
         //2. 生成序列号
         //2.1 获取日期，精确到天-- 为了键的拼接，避免超过上限;方便订单查询
         // 将时间进行格式转换
-        String day = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String day = now.format(DAY_FORMATTER);
         //2.2 使用Redis的自增长实现
         // 不用考虑拆箱为空指针的情况，当新的一天key不存在时，会自动创建一个
         long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + day);
@@ -53,39 +122,137 @@ public class RedisIdWorker {
         return timestamp << COUNT_BITS | count;
     }
 
-//    public static void main(String[] args) {
-//        LocalDateTime time = LocalDateTime.of(2022, 1, 1, 0, 0, 0);
-//        System.out.println(time);
-//        long second = time.toEpochSecond(ZoneOffset.UTC);
-//        //1640995200
-//        System.out.println(second);
-//    }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
+    /**
+     * 当前时间所在的一天，同一天内复用，不创建对象
+     * @param epochSecond 当前的UTC秒数
+     */
+    private Day today(long epochSecond) {
+        Day day = today;
+        long localSecond = epochSecond + day.offsetSeconds;
+        if (localSecond >= day.start && localSecond < day.start + SECONDS_PER_DAY) {
+            return day;
+        }
+        day = Day.of(epochSecond);
+        today = day;
+        return day;
+    }
 
+    /**
+     * 一天：本地日期的开始秒数、时区偏移和计数器key中的日期
+     */
+    private static final class Day {
+        private final long start;
+        private final int offsetSeconds;
+        private final String key;
+
+        private Day(long start, int offsetSeconds, String key) {
+            this.start = start;
+            this.offsetSeconds = offsetSeconds;
+            this.key = key;
+        }
+
+        private static Day of(long epochSecond) {
+            int offset = ZoneId.systemDefault().getRules()
+                    .getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+            long localSecond = epochSecond + offset;
+            long start = Math.floorDiv(localSecond, SECONDS_PER_DAY) * SECONDS_PER_DAY;
+            String key = LocalDate.ofEpochDay(start / SECONDS_PER_DAY).format(DAY_FORMATTER);
+            return new Day(start, offset, key);
+        }
+    }
 
+    /**
+     * 一段序列号 (end - step, end]
+     */
+    private static final class Segment {
+        private final String day;
+        private final AtomicLong cursor;
+        private final long end;
+        /**
+         * 分配到这个序列号时预领下一段
+         */
+        private final long prefetchAt;
+
+        private Segment(String day, long end) {
+            this.day = day;
+            this.cursor = new AtomicLong(end - ID_SEGMENT_STEP);
+            this.end = end;
+            this.prefetchAt = end - (long) (ID_SEGMENT_STEP * ID_SEGMENT_PREFETCH);
+        }
+    }
 
+    /**
+     * 一个业务前缀的号段：当前号段 + 预领的下一段
+     */
+    private final class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean();
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long next(Day day) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.day.equals(day.key)) {
+                    long count = segment.cursor.incrementAndGet();
+                    if (count <= segment.end) {
+                        //1. 用到水位线，异步预领下一段
+                        if (count == segment.prefetchAt) {
+                            prefetch(day.key);
+                        }
+                        return count;
+                    }
+                }
+                //2. 当前号段用完或者换天，切换号段
+                switchSegment(segment, day.key);
+            }
+        }
+
+        private synchronized void switchSegment(Segment old, String day) {
+            if (current != old) {
+                // 其他线程已经切换
+                return;
+            }
+            Segment n = next;
+            next = null;
+            current = n != null && n.day.equals(day) ? n : load(day);
+        }
+
+        private void prefetch(String day) {
+            if (!loading.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                SEGMENT_EXECUTOR.execute(() -> {
+                    try {
+                        Segment segment = load(day);
+                        synchronized (this) {
+                            next = segment;
+                        }
+                    } catch (Exception e) {
+                        log.error("预领号段失败：{}", keyPrefix, e);
+                    } finally {
+                        loading.set(false);
+                    }
+                });
+            } catch (Exception e) {
+                loading.set(false);
+            }
+        }
+
+        /**
+         * INCRBY icr:前缀日期 step
+         */
+        private Segment load(String day) {
+            Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + day, ID_SEGMENT_STEP);
+            if (end == null) {
+                throw new IllegalStateException("预领号段失败：" + keyPrefix);
+            }
+            return new Segment(day, end);
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package com.xzdp.utils.Redis.Script;
+
+import cn.hutool.core.io.resource.ResourceUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 项目中所有的lua脚本
+ *
+ *  脚本只在类加载时从classpath读取一次，并在本地计算好SHA1，执行时只发送SHA1
+ *  脚本中访问的key必须全部通过 KEYS 传入，不能在脚本中拼接，否则Redis集群无法路由
+ *  同一个脚本的多个key使用相同的 hash tag，保证落在同一个slot上
+ */
+public enum LuaScript {
+
+    /**
+     * 秒杀：判断开始/结束时间、库存和一人一单，并发送消息到消息队列
+     * KEYS：库存key、订单key、消息队列、bitmap分片、秒杀券配置；ARGV：优惠券id、用户id、订单id、bitmap位置、当前毫秒
+     */
+    SECKILL("seckill.lua"),
+
+    /**
+     * 秒杀：判断开始/结束时间、库存和一人一单，不使用消息队列
+     * KEYS：库存key、订单key、bitmap分片、秒杀券配置；ARGV：用户id、bitmap位置、当前毫秒
+     */
+    SECKILL2("seckill2.lua"),
+
+    /**
+     * 秒杀：结点已经预领了库存，只判断开始/结束时间和一人一单
+     * KEYS：订单key、bitmap分片、秒杀券配置；ARGV：用户id、bitmap位置、当前毫秒
+     */
+    SECKILL_LEASE("seckill_lease.lua"),
+
+    /**
+     * 撤销一次已经成功的秒杀：删除下单用户，需要时归还库存
+     * KEYS：库存key、订单key、bitmap分片、秒杀券配置；ARGV：用户id、bitmap位置、是否归还库存(1/0)；返回1表示已撤销
+     */
+    SECKILL_ROLLBACK("seckill_rollback.lua"),
+
+    /**
+     * 从秒杀库存中预领一块库存
+     * KEYS：库存key；ARGV：每次预领的库存数
+     */
+    STOCK_LEASE("stock_lease.lua"),
+
+    /**
+     * 释放锁：判断锁的标识，一致时删除
+     * KEYS：锁的key；ARGV：线程标识
+     */
+    UNLOCK("unlock.lua"),
+
+    /**
+     * 获取互斥锁并发放 fencing token
+     * KEYS：锁的key、token计数器；ARGV：过期毫秒；返回token，获取失败返回0
+     */
+    FENCED_LOCK("fenced_lock.lua"),
+
+    /**
+     * 带 fencing token 的缓存写入，token比已写入的更小时拒绝
+     * KEYS：缓存key、token的key；ARGV：缓存值、token、过期毫秒(0表示不过期)；返回1表示写入成功
+     */
+    FENCED_SET("fenced_set.lua"),
+
+    /**
+     * 获取可重入锁：重入次数加1并重置过期时间
+     * KEYS：锁的key；ARGV：持有者标识、过期毫秒；返回0表示成功，否则为锁的剩余毫秒
+     */
+    LOCK("lock.lua"),
+
+    /**
+     * 释放可重入锁：重入次数减1，减到0时删除并发布通知
+     * KEYS：锁的key；ARGV：持有者标识、通知频道；返回剩余重入次数，不是自己的锁返回-1
+     */
+    LOCK_RELEASE("lock_release.lua"),
+
+    /**
+     * 看门狗续期可重入锁
+     * KEYS：锁的key；ARGV：持有者标识、过期毫秒；返回1表示续期成功
+     */
+    LOCK_RENEW("lock_renew.lua"),
+
+    /**
+     * 滑动窗口限流
+     * KEYS：限流key；ARGV：当前时间、窗口长度、窗口内最多的请求数、本次请求的唯一标识
+     */
+    RATE_LIMIT("rate_limit.lua");
+
+    private final String location;
+
+    private final String body;
+
+    private final String sha1;
+
+    LuaScript(String location) {
+        this.location = location;
+        this.body = ResourceUtil.readStr(location, StandardCharsets.UTF_8);
+        this.sha1 = DigestUtil.sha1Hex(body);
+    }
+
+    /**
+     * 脚本在classpath中的位置
+     */
+    public String location() {
+        return location;
+    }
+
+    /**
+     * 脚本内容
+     */
+    public String body() {
+        return body;
+    }
+
+    /**
+     * 脚本内容的SHA1，与 SCRIPT LOAD 的返回值相同
+     */
+    public String sha1() {
+        return sha1;
+    }
+}
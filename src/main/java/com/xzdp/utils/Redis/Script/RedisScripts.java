@@ -0,0 +1,188 @@
+package com.xzdp.utils.Redis.Script;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * lua脚本的注册中心
+ *
+ *  DefaultRedisScript 每次都先发送 EVALSHA，失败后再发送整个脚本；每个类各自加载脚本，无法统一管理
+ *  1. 启动时通过 SCRIPT LOAD 预加载所有脚本，并校验返回的SHA1
+ *  2. 执行时只发送 EVALSHA；Redis重启或 SCRIPT FLUSH 之后返回 NOSCRIPT，此时改用 EVAL 执行并重新缓存脚本
+ *  3. 记录每个脚本的调用次数、耗时、失败次数和 NOSCRIPT 回退次数
+ */
+@Slf4j
+@Component
+public class RedisScripts {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final Map<LuaScript, ScriptStats> stats = new EnumMap<>(LuaScript.class);
+
+    public RedisScripts() {
+        for (LuaScript script : LuaScript.values()) {
+            stats.put(script, new ScriptStats());
+        }
+    }
+
+    /**
+     * 生成 hash tag，Redis集群只根据 {} 中的内容计算slot
+     * 同一个脚本中的key使用相同的 hash tag，例如 seckill:stock:{1} 和 seckill:order:{1}
+     * @param id 业务id
+     * @return {id}
+     */
+    public static String hashTag(Object id) {
+        return "{" + id + "}";
+    }
+
+    /**
+     * 预加载所有脚本；Redis不可用时只打印日志，执行时通过 NOSCRIPT 回退加载
+     */
+    @PostConstruct
+    private void init() {
+        for (LuaScript script : LuaScript.values()) {
+            try {
+                load(script);
+            } catch (Exception e) {
+                log.warn("预加载lua脚本失败：{}，{}", script.location(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * SCRIPT LOAD 加载一个脚本
+     * @param script 脚本
+     */
+    public void load(LuaScript script) {
+        String sha1 = stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptLoad(script.body().getBytes(StandardCharsets.UTF_8)));
+        if (!script.sha1().equals(sha1)) {
+            throw new IllegalStateException("lua脚本的SHA1不一致：" + script.location());
+        }
+        log.debug("预加载lua脚本：{} -> {}", script.location(), sha1);
+    }
+
+    /**
+     * 执行脚本，返回值为整数
+     * @param script 脚本
+     * @param keys 脚本访问的所有key
+     * @param args 参数，byte[] 原样传入，其他类型转为字符串
+     * @return 脚本的返回值；脚本返回nil时为null
+     */
+    public Long execute(LuaScript script, List<String> keys, Object... args) {
+        return execute(script, ReturnType.INTEGER, keys, args);
+    }
+
+    /**
+     * 执行脚本，优先使用 EVALSHA，NOSCRIPT 时回退到 EVAL
+     * @param script 脚本
+     * @param returnType 返回值类型
+     * @param keys 脚本访问的所有key
+     * @param args 参数
+     * @return 脚本的返回值
+     */
+    public <T> T execute(LuaScript script, ReturnType returnType, List<String> keys, Object... args) {
+        //1. 拼接 KEYS 和 ARGV
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        int i = 0;
+        for (String key : keys) {
+            keysAndArgs[i++] = key.getBytes(StandardCharsets.UTF_8);
+        }
+        for (Object arg : args) {
+            //编码后的缓存值等二进制参数原样传入
+            keysAndArgs[i++] = arg instanceof byte[] ? (byte[]) arg : String.valueOf(arg).getBytes(StandardCharsets.UTF_8);
+        }
+
+        //2. 执行并记录耗时
+        ScriptStats s = stats.get(script);
+        long start = System.nanoTime();
+        try {
+            return stringRedisTemplate.execute((RedisCallback<T>) connection -> {
+                try {
+                    return connection.evalSha(script.sha1(), returnType, keys.size(), keysAndArgs);
+                } catch (RuntimeException e) {
+                    if (!isNoScript(e)) {
+                        throw e;
+                    }
+                    //3. 脚本缓存丢失，EVAL 会执行并重新缓存脚本
+                    s.fallbacks.increment();
+                    log.warn("lua脚本缓存丢失，使用 EVAL 执行：{}", script.location());
+                    return connection.eval(script.body().getBytes(StandardCharsets.UTF_8), returnType, keys.size(), keysAndArgs);
+                }
+            });
+        } catch (RuntimeException e) {
+            s.errors.increment();
+            throw e;
+        } finally {
+            s.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 是否为 NOSCRIPT 错误，异常可能被多层包装
+     */
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && message.contains("NOSCRIPT")) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 运行指标
+     * @return 脚本名 -> {calls, errors, fallbacks, avgMicros, maxMicros}
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        stats.forEach((script, s) -> {
+            long calls = s.calls.sum();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("sha1", script.sha1());
+            item.put("calls", calls);
+            item.put("errors", s.errors.sum());
+            item.put("fallbacks", s.fallbacks.sum());
+            item.put("avgMicros", calls == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(s.totalNanos.sum() / calls));
+            item.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(s.maxNanos.get()));
+            res.put(script.location(), item);
+        });
+        return res;
+    }
+
+    /**
+     * 单个脚本的统计
+     */
+    private static class ScriptStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder fallbacks = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos) {
+            calls.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.xzdp.utils.Redis.Seckill;
+
+import com.xzdp.utils.Redis.Script.RedisScripts;
+
+import static com.xzdp.utils.Constants.RedisConstants.SECKILL_BUYER_KEY;
+import static com.xzdp.utils.Constants.RedisConstants.SECKILL_BUYER_SHARD_BITS;
+
+/**
+ * 秒杀一人一单的去重方式，每个秒杀券单独配置
+ *
+ *  SET：seckill:order:{voucherId} 中保存用户id字符串，用户数超过512后变为哈希表，每个用户约60字节
+ *  BITMAP：seckill:buyer:{voucherId}:分片 中用户id对应的位为1，每个用户1位
+ *      用户id是数据库自增id，比较连续，bitmap的大小约为 最大用户id / 8 字节
+ *      按用户id的高位分片，每片最大1MB，稀疏的用户id不会让单个key变得很大，SETBIT也不会一次分配很大的内存
+ *      所有分片使用相同的 hash tag，与库存key落在同一个slot上
+ *
+ *  lua脚本从 seckill:voucher:{voucherId} 的 dedup 字段读取去重方式，没有配置时使用SET
+ */
+public enum BuyerDedup {
+
+    SET("set"),
+
+    BITMAP("bitmap");
+
+    private final String value;
+
+    BuyerDedup(String value) {
+        this.value = value;
+    }
+
+    /**
+     * 保存在Redis中的值
+     */
+    public String value() {
+        return value;
+    }
+
+    /**
+     * 解析去重方式，为空或无法识别时使用SET
+     * @param value set、bitmap
+     */
+    public static BuyerDedup of(String value) {
+        return BITMAP.value.equalsIgnoreCase(value) ? BITMAP : SET;
+    }
+
+    /**
+     * 用户所在的bitmap分片
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return seckill:buyer:{voucherId}:分片号
+     */
+    public static String buyerKey(Long voucherId, Long userId) {
+        return SECKILL_BUYER_KEY + RedisScripts.hashTag(voucherId) + ":" + (userId >>> SECKILL_BUYER_SHARD_BITS);
+    }
+
+    /**
+     * 用户在分片中的位置
+     * @param userId 用户id
+     */
+    public static long offset(Long userId) {
+        return userId & ((1L << SECKILL_BUYER_SHARD_BITS) - 1);
+    }
+}
@@ -0,0 +1,353 @@
+package com.xzdp.utils.Redis.Seckill;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.xzdp.entity.SeckillVoucher;
+import com.xzdp.entity.Voucher;
+import com.xzdp.mapper.SeckillVoucherMapper;
+import com.xzdp.mapper.VoucherMapper;
+import com.xzdp.utils.Redis.Cache.SingleFlight;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.xzdp.utils.Constants.RedisConstants.*;
+
+/**
+ * 结点内的秒杀券信息缓存
+ *
+ *  秒杀请求需要判断开始/结束时间，每次查询 tb_seckill_voucher 会让数据库成为秒杀的瓶颈
+ *  1. 启动时按 voucher_id 分批读取所有秒杀券，生成不可变的快照；之后定时全量刷新
+ *  2. 读取时直接访问快照，不加锁；更新时复制一份新的快照再替换
+ *  3. 全量加载时把开始/结束时间(毫秒)写入 seckill:voucher:{id}，lua脚本据此再判断一次，以Redis为准
+ *     同时把 hash tag 之前的库存和下单用户(seckill:stock:id、seckill:order:id)迁移到新的key
+ *  4. 秒杀券变更时通过发布订阅通知所有结点，只重新加载这一张秒杀券
+ *  5. 快照中没有的优惠券查询一次数据库，同一个id的并发查询合并为一次；
+ *     不存在的id记录在有上限的LRU中，过期或全量刷新时清空，防止缓存穿透；不存在的id不复制快照
+ */
+@Slf4j
+@Component
+public class SeckillVoucherCache {
+
+    /**
+     * 每次读取的秒杀券数
+     */
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    /**
+     * 最多记录的不存在的id，超过时淘汰最久没有访问的
+     */
+    private static final int MAX_ABSENT = 10000;
+
+    /**
+     * 不存在的id的有效期，与全量刷新的间隔相同，毫秒
+     */
+    private static final long ABSENT_MILLIS = TimeUnit.SECONDS.toMillis(SECKILL_VOUCHER_REFRESH_SECONDS);
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private VoucherMapper voucherMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 优惠券id -> 秒杀券信息，不可变的快照
+     */
+    private volatile Map<Long, SeckillVoucherMeta> snapshot = Collections.emptyMap();
+
+    /**
+     * 数据库中不存在的优惠券id
+     */
+    private final LRUCache<Long, Boolean> absent = CacheUtil.newLRUCache(MAX_ABSENT, ABSENT_MILLIS);
+
+    /**
+     * 合并同一个id的并发查询
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile long lastRefresh;
+
+    private final ScheduledExecutorService REFRESH_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-voucher-", true));
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+            REFRESH_EXECUTOR.execute(() -> reload(voucherId));
+        }, new ChannelTopic(SECKILL_VOUCHER_CHANNEL));
+        // 异步加载，加载完成前的请求逐个查询数据库
+        REFRESH_EXECUTOR.scheduleWithFixedDelay(this::refresh,
+                0, SECKILL_VOUCHER_REFRESH_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        REFRESH_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 查询秒杀券信息
+     * @param voucherId 优惠券id
+     * @return 秒杀券信息；不存在时返回null
+     */
+    public SeckillVoucherMeta get(Long voucherId) {
+        SeckillVoucherMeta meta = snapshot.get(voucherId);
+        if (meta != null) {
+            hits.increment();
+            return meta;
+        }
+        if (absent.containsKey(voucherId)) {
+            hits.increment();
+            return null;
+        }
+        misses.increment();
+        return singleFlight.execute(voucherId.toString(), () -> reload(voucherId),
+                CACHE_LOAD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 判断是否可以秒杀
+     * @param voucherId 优惠券id
+     * @param now 当前时间，毫秒
+     * @return 与 SeckillVoucherMeta.check 相同，不存在时返回 UNAVAILABLE
+     */
+    public int check(Long voucherId, long now) {
+        SeckillVoucherMeta meta = get(voucherId);
+        return meta == null ? SeckillVoucherMeta.UNAVAILABLE : meta.check(now);
+    }
+
+    /**
+     * 当前快照中的所有秒杀券
+     * @return 不可修改
+     */
+    public Collection<SeckillVoucherMeta> all() {
+        return snapshot.values();
+    }
+
+    /**
+     * 秒杀券变更后调用，通知所有结点重新加载
+     * @param voucherId 优惠券id
+     */
+    public void publishChange(Long voucherId) {
+        stringRedisTemplate.convertAndSend(SECKILL_VOUCHER_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 重新加载一张秒杀券，替换快照
+     */
+    private SeckillVoucherMeta reload(Long voucherId) {
+        SeckillVoucher seckillVoucher = seckillVoucherMapper.selectById(voucherId);
+        Voucher voucher = seckillVoucher == null ? null : voucherMapper.selectById(voucherId);
+        if (seckillVoucher == null) {
+            absent.put(voucherId, Boolean.TRUE);
+            if (!snapshot.containsKey(voucherId)) {
+                // 快照中本来就没有，不需要复制
+                return null;
+            }
+        }
+        synchronized (this) {
+            Map<Long, SeckillVoucherMeta> copy = new HashMap<>(snapshot);
+            SeckillVoucherMeta meta = null;
+            if (seckillVoucher == null) {
+                copy.remove(voucherId);
+            } else {
+                meta = SeckillVoucherMeta.of(seckillVoucher, voucher == null ? null : voucher.getStatus());
+                copy.put(voucherId, meta);
+                absent.remove(voucherId);
+            }
+            snapshot = Collections.unmodifiableMap(copy);
+            return meta;
+        }
+    }
+
+    /**
+     * 全量刷新：按 voucher_id 分批读取，每批同步开始/结束时间到Redis
+     */
+    private void refresh() {
+        try {
+            Map<Long, SeckillVoucherMeta> all = new HashMap<>();
+            long lastId = 0;
+            while (true) {
+                //1. 从上一批的最后一个id开始读取，不使用 offset 翻页
+                List<SeckillVoucher> list = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                        .gt("voucher_id", lastId)
+                        .orderByAsc("voucher_id")
+                        .last("limit " + LOAD_BATCH_SIZE));
+                if (list.isEmpty()) {
+                    break;
+                }
+                //2. 查询这一批优惠券的状态
+                List<Long> ids = list.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+                Map<Long, Integer> status = voucherMapper.selectList(new LambdaQueryWrapper<Voucher>()
+                                .select(Voucher::getId, Voucher::getStatus)
+                                .in(Voucher::getId, ids))
+                        .stream()
+                        .filter(v -> v.getStatus() != null)
+                        .collect(Collectors.toMap(Voucher::getId, Voucher::getStatus));
+                for (SeckillVoucher seckillVoucher : list) {
+                    Long id = seckillVoucher.getVoucherId();
+                    all.put(id, SeckillVoucherMeta.of(seckillVoucher, status.get(id)));
+                }
+                //3. 同步到Redis，迁移旧的key
+                syncToRedis(list);
+                migrateLegacyKeys(list);
+                if (list.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = ids.get(ids.size() - 1);
+            }
+            synchronized (this) {
+                snapshot = Collections.unmodifiableMap(all);
+                absent.clear();
+            }
+            lastRefresh = System.currentTimeMillis();
+            log.debug("加载秒杀券信息：{} 张", all.size());
+        } catch (Exception e) {
+            log.error("加载秒杀券信息失败！", e);
+        }
+    }
+
+    /**
+     * 把开始/结束时间写入 seckill:voucher:{id}，一批使用一次pipeline
+     */
+    private void syncToRedis(List<SeckillVoucher> list) {
+        RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SeckillVoucher seckillVoucher : list) {
+                Map<String, String> fields = timeFields(seckillVoucher);
+                if (fields.isEmpty()) {
+                    continue;
+                }
+                Map<byte[], byte[]> hash = new HashMap<>(4);
+                fields.forEach((k, v) -> hash.put(serializer.serialize(k), serializer.serialize(v)));
+                connection.hashCommands().hMSet(
+                        serializer.serialize(SECKILL_VOUCHER_KEY + RedisScripts.hashTag(seckillVoucher.getVoucherId())), hash);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 迁移不带 hash tag 的库存和下单用户：seckill:stock:id -> seckill:stock:{id}，seckill:order:id -> seckill:order:{id}
+     *  新旧key不在同一个slot，不能在一个脚本中完成：
+     *  1. 一批使用一次pipeline读取旧的库存，不存在的不需要迁移
+     *  2. 先复制下单用户(SADD 幂等)，再 SETNX 库存，成功后删除旧key；中途失败下次全量刷新时重试
+     *  3. 新的库存已经存在时不覆盖，保留旧key，需要人工处理
+     */
+    private void migrateLegacyKeys(List<SeckillVoucher> list) {
+        RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+        List<Object> stocks = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SeckillVoucher seckillVoucher : list) {
+                connection.stringCommands().get(serializer.serialize(SECKILL_STOCK_KEY + seckillVoucher.getVoucherId()));
+            }
+            return null;
+        });
+        for (int i = 0; i < list.size(); i++) {
+            Object stock = stocks.get(i);
+            if (stock == null) {
+                continue;
+            }
+            Long voucherId = list.get(i).getVoucherId();
+            try {
+                migrateLegacyKeys(voucherId, stock.toString());
+            } catch (Exception e) {
+                log.error("迁移秒杀券 {} 的库存和下单用户失败", voucherId, e);
+            }
+        }
+    }
+
+    private void migrateLegacyKeys(Long voucherId, String stock) throws IOException {
+        String tag = RedisScripts.hashTag(voucherId);
+        String legacyOrderKey = SECKILL_ORDER_KEY + voucherId;
+        //1. 复制下单用户，每批 LOAD_BATCH_SIZE 个
+        long buyers = 0;
+        try (Cursor<String> members = stringRedisTemplate.opsForSet()
+                .scan(legacyOrderKey, ScanOptions.scanOptions().count(LOAD_BATCH_SIZE).build())) {
+            List<String> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+            while (members.hasNext()) {
+                batch.add(members.next());
+                if (batch.size() == LOAD_BATCH_SIZE || !members.hasNext()) {
+                    stringRedisTemplate.opsForSet().add(SECKILL_ORDER_KEY + tag, batch.toArray(new String[0]));
+                    buyers += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        //2. 库存只在新key不存在时写入
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_STOCK_KEY + tag, stock))) {
+            log.warn("秒杀券 {} 的新旧库存key同时存在，未迁移：{}", voucherId, SECKILL_STOCK_KEY + voucherId);
+            return;
+        }
+        //3. 删除旧key
+        stringRedisTemplate.delete(SECKILL_STOCK_KEY + voucherId);
+        stringRedisTemplate.delete(legacyOrderKey);
+        log.info("迁移秒杀券 {} 的库存和下单用户：库存 {}，下单用户 {} 个", voucherId, stock, buyers);
+    }
+
+    /**
+     * 秒杀券的开始/结束时间，lua脚本按毫秒比较；没有设置的时间不写入
+     * @param seckillVoucher 秒杀券
+     * @return begin/end -> 毫秒
+     */
+    public static Map<String, String> timeFields(SeckillVoucher seckillVoucher) {
+        Map<String, String> fields = new HashMap<>(4);
+        if (seckillVoucher.getBeginTime() != null) {
+            fields.put("begin", String.valueOf(SeckillVoucherMeta.toMillis(seckillVoucher.getBeginTime(), 0)));
+        }
+        if (seckillVoucher.getEndTime() != null) {
+            fields.put("end", String.valueOf(SeckillVoucherMeta.toMillis(seckillVoucher.getEndTime(), 0)));
+        }
+        return fields;
+    }
+
+    /**
+     * 运行指标
+     * @return 缓存的秒杀券数、命中和未命中次数、上次全量刷新的时间
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("size", snapshot.size());
+        res.put("absent", absent.size());
+        res.put("hits", hits.sum());
+        res.put("misses", misses.sum());
+        res.put("lastRefresh", lastRefresh);
+        return res;
+    }
+}
@@ -0,0 +1,104 @@
+package com.xzdp.utils.Redis.Seckill;
+
+import com.xzdp.entity.SeckillVoucher;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 秒杀券的元数据，不可变
+ *
+ *  秒杀请求只需要开始/结束时间和上架状态，缓存在本地，不再每次查询数据库
+ *  检查结果与lua脚本的返回值一致：0 成功，1 库存不足，2 重复下单，3 未开始，4 已结束，5 不存在或已下架
+ */
+@Getter
+public final class SeckillVoucherMeta {
+
+    public static final int OK = 0;
+    public static final int SOLD_OUT = 1;
+    public static final int DUPLICATE = 2;
+    public static final int NOT_STARTED = 3;
+    public static final int ENDED = 4;
+    public static final int UNAVAILABLE = 5;
+
+    /**
+     * 优惠券上架的状态
+     */
+    private static final int STATUS_ON_SHELF = 1;
+
+    private final Long voucherId;
+
+    /**
+     * 开始、结束时间，毫秒
+     */
+    private final long beginMillis;
+    private final long endMillis;
+
+    /**
+     * 优惠券状态：1 上架，2 下架，3 过期
+     */
+    private final int status;
+
+    private SeckillVoucherMeta(Long voucherId, long beginMillis, long endMillis, int status) {
+        this.voucherId = voucherId;
+        this.beginMillis = beginMillis;
+        this.endMillis = endMillis;
+        this.status = status;
+    }
+
+    /**
+     * @param seckillVoucher 秒杀券
+     * @param status 优惠券状态，为null时按上架处理
+     */
+    public static SeckillVoucherMeta of(SeckillVoucher seckillVoucher, Integer status) {
+        return new SeckillVoucherMeta(seckillVoucher.getVoucherId(),
+                toMillis(seckillVoucher.getBeginTime(), Long.MIN_VALUE),
+                toMillis(seckillVoucher.getEndTime(), Long.MAX_VALUE),
+                status == null ? STATUS_ON_SHELF : status);
+    }
+
+    /**
+     * 本地时间转换为毫秒，为null时使用默认值
+     */
+    public static long toMillis(LocalDateTime time, long defaultValue) {
+        return time == null ? defaultValue : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 检查是否可以秒杀
+     * @param now 当前时间，毫秒
+     * @return 0 可以秒杀；3 未开始；4 已结束；5 已下架
+     */
+    public int check(long now) {
+        if (status != STATUS_ON_SHELF) {
+            return UNAVAILABLE;
+        }
+        if (now < beginMillis) {
+            return NOT_STARTED;
+        }
+        if (now > endMillis) {
+            return ENDED;
+        }
+        return OK;
+    }
+
+    /**
+     * 检查结果对应的提示信息
+     * @param code 检查结果或lua脚本的返回值
+     */
+    public static String failMessage(int code) {
+        switch (code) {
+            case SOLD_OUT:
+                return "库存不足！";
+            case DUPLICATE:
+                return "重复下单！";
+            case NOT_STARTED:
+                return "抢购还未开始，请耐心等待！";
+            case ENDED:
+                return "抢购已经结束！";
+            default:
+                return "优惠券不存在或已下架！";
+        }
+    }
+}
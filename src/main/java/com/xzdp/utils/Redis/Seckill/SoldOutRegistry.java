@@ -0,0 +1,109 @@
+package com.xzdp.utils.Redis.Seckill;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.xzdp.utils.Constants.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 结点内的秒杀券售罄标记
+ *
+ *  优惠券卖完之后，每个秒杀请求仍然要执行一次lua脚本，才能拿到"库存不足"
+ *  1. 第一次从Redis拿到"库存不足"时，在本地标记售罄，并通过发布订阅通知其他结点
+ *  2. 之后的请求在本地判断，直接拒绝，不再访问Redis
+ *  3. 新结点启动时没有标记，第一次拿到"库存不足"后自己标记
+ *  4. 库存恢复(重新设置库存)时调用 reset，所有结点删除标记
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry {
+
+    /**
+     * 恢复库存的消息前缀，消息格式：-voucherId
+     */
+    private static final String RESET_PREFIX = "-";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 已经售罄的优惠券id
+     */
+    private final Set<Long> soldOut = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 在本地直接拒绝的请求数
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (body.startsWith(RESET_PREFIX)) {
+                soldOut.remove(Long.valueOf(body.substring(RESET_PREFIX.length())));
+            } else {
+                soldOut.add(Long.valueOf(body));
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 是否已经售罄，售罄时记录一次拒绝
+     * @param voucherId 优惠券id
+     * @return true 已经售罄
+     */
+    public boolean isSoldOut(Long voucherId) {
+        if (soldOut.contains(voucherId)) {
+            rejected.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 标记售罄，并通知所有结点
+     * @param voucherId 优惠券id
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.add(voucherId)) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+            log.info("优惠券已售罄：{}", voucherId);
+        }
+    }
+
+    /**
+     * 库存恢复，删除所有结点上的售罄标记
+     * @param voucherId 优惠券id
+     */
+    public void reset(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESET_PREFIX + voucherId);
+    }
+
+    /**
+     * 运行指标
+     * @return 售罄的优惠券和本地拒绝的请求数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("soldOut", soldOut);
+        res.put("rejected", rejected.sum());
+        return res;
+    }
+}
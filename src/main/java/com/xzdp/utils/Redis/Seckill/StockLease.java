@@ -0,0 +1,127 @@
+package com.xzdp.utils.Redis.Seckill;
+
+import com.xzdp.utils.Redis.Script.LuaScript;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.xzdp.utils.Constants.RedisConstants.SECKILL_STOCK_KEY;
+import static com.xzdp.utils.Constants.RedisConstants.SECKILL_STOCK_LEASE;
+
+/**
+ * 结点内的秒杀库存租约(可选)
+ *
+ *  每个结点一次从 seckill:stock:{voucherId} 中预领一块库存，之后在本地扣减，不再每个请求都扣Redis的库存
+ *  1. 本地库存用完时，再去Redis预领一块；Redis中也没有了，说明库存已经全部分配出去
+ *  2. 一人一单仍然在Redis中判断，重复下单时把库存还给本地
+ *  3. 结点正常关闭时，把没用完的库存还给Redis
+ *
+ *  代价：结点异常退出时，没用完的库存会丢失(少卖)；某个结点卖完时其他结点可能还有库存
+ *  SECKILL_STOCK_LEASE 为0时不启用
+ */
+@Slf4j
+@Component
+public class StockLease {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    /**
+     * 优惠券id -> 本地剩余的库存
+     */
+    private final Map<Long, AtomicLong> leases = new ConcurrentHashMap<>();
+
+    /**
+     * 是否启用
+     */
+    public boolean enabled() {
+        return SECKILL_STOCK_LEASE > 0;
+    }
+
+    /**
+     * 本地剩余的库存
+     * @param voucherId 优惠券id
+     */
+    public long remaining(Long voucherId) {
+        AtomicLong lease = leases.get(voucherId);
+        return lease == null ? 0 : lease.get();
+    }
+
+    /**
+     * 扣减一个库存，本地不足时去Redis预领
+     * @param voucherId 优惠券id
+     * @return false 表示Redis中的库存也已经分配完
+     */
+    public boolean tryAcquire(Long voucherId) {
+        AtomicLong lease = leases.computeIfAbsent(voucherId, k -> new AtomicLong());
+        while (true) {
+            //1. 本地扣减
+            long n = lease.get();
+            if (n > 0) {
+                if (lease.compareAndSet(n, n - 1)) {
+                    return true;
+                }
+                continue;
+            }
+            //2. 本地没有了，同一个优惠券只有一个线程去Redis预领
+            synchronized (lease) {
+                if (lease.get() > 0) {
+                    continue;
+                }
+                Long chunk = redisScripts.execute(LuaScript.STOCK_LEASE,
+                        Collections.singletonList(SECKILL_STOCK_KEY + RedisScripts.hashTag(voucherId)), SECKILL_STOCK_LEASE);
+                if (chunk == null || chunk <= 0) {
+                    return false;
+                }
+                lease.addAndGet(chunk);
+            }
+        }
+    }
+
+    /**
+     * 归还一个库存到本地，例如重复下单
+     * @param voucherId 优惠券id
+     */
+    public void release(Long voucherId) {
+        leases.computeIfAbsent(voucherId, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * 结点关闭时，把没用完的库存还给Redis
+     */
+    @PreDestroy
+    private void returnAll() {
+        leases.forEach((voucherId, lease) -> {
+            long n = lease.getAndSet(0);
+            if (n > 0) {
+                stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + RedisScripts.hashTag(voucherId), n);
+                log.info("归还库存，优惠券：{}，数量：{}", voucherId, n);
+            }
+        });
+    }
+
+    /**
+     * 运行指标
+     * @return 优惠券id -> 本地剩余的库存
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("chunk", SECKILL_STOCK_LEASE);
+        Map<Long, Long> remaining = new LinkedHashMap<>();
+        leases.forEach((voucherId, lease) -> remaining.put(voucherId, lease.get()));
+        res.put("remaining", remaining);
+        return res;
+    }
+}
@@ -0,0 +1,465 @@
+package com.xzdp.utils.Redis.Seckill;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.xzdp.entity.SeckillVoucher;
+import com.xzdp.entity.VoucherOrder;
+import com.xzdp.mapper.SeckillVoucherMapper;
+import com.xzdp.mapper.VoucherOrderMapper;
+import com.xzdp.utils.Redis.Lock.RedisLocks;
+import com.xzdp.utils.Redis.Lock.ReentrantRedisLock;
+import com.xzdp.utils.Redis.Script.RedisScripts;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.xzdp.utils.Constants.RedisConstants.*;
+
+/**
+ * 秒杀库存对账：Redis 与 MySQL
+ *
+ *  异步下单失败时，Redis中已经扣了库存、记录了下单用户，数据库却没有订单；或者数据库扣库存失败仍然保存了订单
+ *  每张秒杀券应当满足：Redis库存 + 下单用户数 = 数据库库存 + 订单数 = 初始库存
+ *  1. 每次都统计订单数(SELECT COUNT，只走索引)；订单异步落库，消息可能积压或者重试，提交顺序与订单id无关，
+ *     按id游标增量统计会漏掉游标经过之后才提交的订单
+ *  2. 比较：下单用户数 - 订单数 为还没落库的订单(积压)；两边的总数不相等为库存偏差
+ *  3. 正常情况下积压不会小于0，偏差为0；只有出现异常时才按id分页读取这张券的所有订单，
+ *     下单用户不在Redis中时补上(SADD / SETBIT)，防止Redis数据丢失后重复下单，补完重新统计
+ *  4. 上一次的订单数和偏差保存在 seckill:reconcile:{id}，用来判断两次对账之间是否还有订单在处理；
+ *     补过下单用户说明Redis丢过数据(例如从旧的快照恢复)，Redis库存也不可信，在其中记录 redisUntrusted，
+ *     直到偏差恢复为0
+ *  5. 两次对账之间订单数和偏差都没有变化(没有正在处理的订单)：
+ *      5.1 积压为0、存在偏差，Redis可信时以Redis为准修复数据库库存(CAS)；
+ *          Redis不可信时以数据库为准，Redis库存偏多的部分扣掉(DECRBY)，偏少只告警
+ *      5.2 积压不为0，订单已经丢失，只告警，需要人工补单
+ *  6. 订单数大于下单用户数说明有重复订单，只告警
+ *
+ *  使用可重入锁保证多个结点只有一个执行，对账时间较长时由看门狗续期，不会与其他结点的对账重叠；预领库存时结点手中的库存不在Redis中，只统计不比较
+ */
+@Slf4j
+@Component
+public class StockReconciler {
+
+    /**
+     * 每批读取的订单数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private StockLease stockLease;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisLocks redisLocks;
+
+    /**
+     * 每张秒杀券最近一次的对账结果
+     */
+    private volatile Map<Long, Report> reports = new ConcurrentHashMap<>();
+
+    private final LongAdder repairedBuyers = new LongAdder();
+    private final LongAdder repairedStock = new LongAdder();
+    private final LongAdder flagged = new LongAdder();
+    private volatile long lastRun;
+
+    private final ScheduledExecutorService RECONCILE_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-reconcile-", true));
+
+    @PostConstruct
+    private void init() {
+        RECONCILE_EXECUTOR.scheduleWithFixedDelay(this::reconcile,
+                SECKILL_RECONCILE_INTERVAL, SECKILL_RECONCILE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        RECONCILE_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 对账所有进行中和最近结束的秒杀券
+     * @return 对账的秒杀券数；其他结点正在对账时返回0
+     */
+    public int reconcile() {
+        //1. 多个结点只有一个执行对账，持有锁直到对账结束
+        ReentrantRedisLock lock = redisLocks.getLock(LOCK_SECKILL_RECONCILE_KEY);
+        if (!lock.tryLock()) {
+            return 0;
+        }
+        try {
+            return reconcileAll();
+        } finally {
+            try {
+                lock.unlock();
+            } catch (IllegalMonitorStateException e) {
+                log.warn("库存对账的锁已经过期：{}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 持有锁时对账所有秒杀券
+     */
+    private int reconcileAll() {
+        long now = System.currentTimeMillis();
+        long retainSince = now - TimeUnit.HOURS.toMillis(SECKILL_RECONCILE_RETAIN_HOURS);
+        Map<Long, Report> res = new ConcurrentHashMap<>();
+        for (SeckillVoucherMeta meta : seckillVoucherCache.all()) {
+            if (meta.getEndMillis() < retainSince) {
+                continue;
+            }
+            Long voucherId = meta.getVoucherId();
+            try {
+                res.put(voucherId, reconcile(voucherId, now));
+            } catch (Exception e) {
+                log.error("库存对账失败：{}", voucherId, e);
+            }
+        }
+        reports = res;
+        lastRun = now;
+        return res.size();
+    }
+
+    /**
+     * 对账一张秒杀券
+     */
+    private Report reconcile(Long voucherId, long now) {
+        String tag = RedisScripts.hashTag(voucherId);
+        String checkpointKey = SECKILL_RECONCILE_KEY + tag;
+        BuyerDedup dedup = BuyerDedup.of((String) stringRedisTemplate.opsForHash().get(SECKILL_VOUCHER_KEY + tag, "dedup"));
+        Map<Object, Object> checkpoint = stringRedisTemplate.opsForHash().entries(checkpointKey);
+
+        //1. 统计订单数，Redis库存和下单用户数，数据库库存
+        long orders = countOrders(voucherId);
+        long redisStock = redisStock(tag);
+        long buyers = countBuyers(voucherId, tag, dedup);
+        SeckillVoucher seckillVoucher = seckillVoucherMapper.selectById(voucherId);
+        long dbStock = seckillVoucher == null || seckillVoucher.getStock() == null ? 0 : seckillVoucher.getStock();
+
+        //2. 比较
+        long lag = buyers - orders;
+        long drift = (redisStock + buyers) - (dbStock + orders);
+
+        //3. 出现异常时才读取所有订单，补上Redis中缺少的下单用户，补过之后重新统计
+        long repaired = 0;
+        if (lag < 0 || drift != 0) {
+            repaired = repairAllBuyers(voucherId, tag, dedup);
+            repairedBuyers.add(repaired);
+            if (repaired > 0) {
+                orders = countOrders(voucherId);
+                redisStock = redisStock(tag);
+                buyers = countBuyers(voucherId, tag, dedup);
+                lag = buyers - orders;
+                drift = (redisStock + buyers) - (dbStock + orders);
+            }
+        }
+
+        //4. 两次对账之间没有新的订单落库，偏差也没有变化
+        boolean stable = checkpoint.containsKey("lastOrders")
+                && orders == getLong(checkpoint, "lastOrders") && drift == getLong(checkpoint, "lastDrift");
+        // 补过下单用户后Redis库存不可信，直到偏差恢复为0
+        boolean untrusted = repaired > 0 || (checkpoint.containsKey("redisUntrusted") && drift != 0);
+        Status status;
+        if (stockLease.enabled()) {
+            status = Status.LEASED;
+        } else if (lag < 0) {
+            status = Status.DUPLICATE;
+        } else if (drift != 0) {
+            boolean fixed = false;
+            if (stable && lag == 0 && repaired == 0) {
+                // Redis不可信时以数据库为准，只扣掉Redis多出来的库存
+                fixed = untrusted ? drift > 0 && repairRedisStock(voucherId, tag, drift)
+                        : repairStock(voucherId, dbStock, redisStock);
+            }
+            status = fixed ? Status.REPAIRED : Status.DRIFT;
+        } else if (lag > 0 && stable) {
+            status = Status.LOST;
+        } else {
+            status = Status.OK;
+        }
+        Map<String, String> last = new HashMap<>(4);
+        last.put("lastOrders", String.valueOf(orders));
+        last.put("lastDrift", String.valueOf(drift));
+        if (untrusted) {
+            last.put("redisUntrusted", "1");
+        }
+        stringRedisTemplate.opsForHash().putAll(checkpointKey, last);
+        if (!untrusted) {
+            stringRedisTemplate.opsForHash().delete(checkpointKey, "redisUntrusted");
+        }
+
+        Report report = new Report(redisStock, buyers, dbStock, orders, lag, drift, repaired, status, now);
+        if (status.isFlagged()) {
+            flagged.increment();
+            log.warn("秒杀券库存对账异常：{}，{}", voucherId, report);
+        }
+        return report;
+    }
+
+    /**
+     * 订单数，只走 voucher_id 索引
+     */
+    private long countOrders(Long voucherId) {
+        Integer n = voucherOrderMapper.selectCount(new LambdaQueryWrapper<VoucherOrder>()
+                .eq(VoucherOrder::getVoucherId, voucherId));
+        return n == null ? 0 : n;
+    }
+
+    private long redisStock(String tag) {
+        String stockValue = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + tag);
+        return stockValue == null ? 0 : Long.parseLong(stockValue);
+    }
+
+    /**
+     * 按id分页读取这张券的所有订单，补上Redis中缺少的下单用户
+     * @return 补上的用户数
+     */
+    private long repairAllBuyers(Long voucherId, String tag, BuyerDedup dedup) {
+        long cursor = 0;
+        long repaired = 0;
+        while (true) {
+            List<VoucherOrder> batch = voucherOrderMapper.selectList(new QueryWrapper<VoucherOrder>()
+                    .select("id", "user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("id", cursor)
+                    .orderByAsc("id")
+                    .last("limit " + BATCH_SIZE));
+            if (batch.isEmpty()) {
+                break;
+            }
+            repaired += repairBuyers(voucherId, tag, dedup, batch);
+            cursor = batch.get(batch.size() - 1).getId();
+            if (batch.size() < BATCH_SIZE) {
+                break;
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * 检查一批订单的下单用户是否在Redis中，不在的补上
+     * @return 补上的用户数
+     */
+    private long repairBuyers(Long voucherId, String tag, BuyerDedup dedup, List<VoucherOrder> orders) {
+        RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+        byte[] orderKey = serializer.serialize(SECKILL_ORDER_KEY + tag);
+        //1. 管道批量判断 SISMEMBER / GETBIT
+        List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (VoucherOrder order : orders) {
+                Long userId = order.getUserId();
+                if (dedup == BuyerDedup.BITMAP) {
+                    connection.stringCommands().getBit(
+                            serializer.serialize(BuyerDedup.buyerKey(voucherId, userId)), BuyerDedup.offset(userId));
+                } else {
+                    connection.setCommands().sIsMember(orderKey, serializer.serialize(userId.toString()));
+                }
+            }
+            return null;
+        });
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            if (!BooleanUtil.isTrue((Boolean) exists.get(i))) {
+                missing.add(orders.get(i).getUserId());
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+        //2. 补上缺少的用户
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long userId : missing) {
+                if (dedup == BuyerDedup.BITMAP) {
+                    connection.stringCommands().setBit(
+                            serializer.serialize(BuyerDedup.buyerKey(voucherId, userId)), BuyerDedup.offset(userId), true);
+                } else {
+                    connection.setCommands().sAdd(orderKey, serializer.serialize(userId.toString()));
+                }
+            }
+            return null;
+        });
+        log.warn("秒杀券 {} 的下单用户在Redis中丢失，已补上 {} 个", voucherId, missing.size());
+        return missing.size();
+    }
+
+    /**
+     * Redis中的下单用户数：SCARD，或者所有bitmap分片的 BITCOUNT 之和
+     */
+    private long countBuyers(Long voucherId, String tag, BuyerDedup dedup) {
+        if (dedup != BuyerDedup.BITMAP) {
+            Long size = stringRedisTemplate.opsForSet().size(SECKILL_ORDER_KEY + tag);
+            return size == null ? 0 : size;
+        }
+        Long total = stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            long sum = 0;
+            ScanOptions options = ScanOptions.scanOptions().match(SECKILL_BUYER_KEY + tag + ":*").count(100).build();
+            try (Cursor<byte[]> keys = connection.scan(options)) {
+                while (keys.hasNext()) {
+                    Long n = connection.stringCommands().bitCount(keys.next());
+                    sum += n == null ? 0 : n;
+                }
+            }
+            return sum;
+        });
+        return total == null ? 0 : total;
+    }
+
+    /**
+     * 以Redis为准修复数据库库存，库存被其他事务修改时放弃
+     */
+    private boolean repairStock(Long voucherId, long dbStock, long redisStock) {
+        int n = seckillVoucherMapper.update(null, new LambdaUpdateWrapper<SeckillVoucher>()
+                .set(SeckillVoucher::getStock, redisStock)
+                .eq(SeckillVoucher::getVoucherId, voucherId)
+                .eq(SeckillVoucher::getStock, dbStock));
+        if (n > 0) {
+            repairedStock.increment();
+            log.warn("修复秒杀券 {} 的数据库库存：{} -> {}", voucherId, dbStock, redisStock);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Redis丢过数据时以数据库为准，扣掉Redis多出来的库存
+     *  使用 DECRBY 而不是 SET，对账期间的秒杀请求扣减的库存不会被覆盖
+     */
+    private boolean repairRedisStock(Long voucherId, String tag, long drift) {
+        Long stock = stringRedisTemplate.opsForValue().decrement(SECKILL_STOCK_KEY + tag, drift);
+        repairedStock.increment();
+        log.warn("修复秒杀券 {} 的Redis库存：扣掉 {}，剩余 {}", voucherId, drift, stock);
+        return true;
+    }
+
+    private static long getLong(Map<Object, Object> map, String field) {
+        Object value = map.get(field);
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    /**
+     * 运行指标
+     * @return 上次对账时间、修复和告警次数、每张秒杀券的对账结果
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("lastRun", lastRun);
+        res.put("repairedBuyers", repairedBuyers.sum());
+        res.put("repairedStock", repairedStock.sum());
+        res.put("flagged", flagged.sum());
+        res.put("vouchers", reports);
+        return res;
+    }
+
+    /**
+     * 对账结果
+     */
+    public enum Status {
+        /**
+         * 一致；积压的订单还在处理中
+         */
+        OK(false),
+        /**
+         * 已修复数据库库存
+         */
+        REPAIRED(false),
+        /**
+         * 预领库存，不比较库存
+         */
+        LEASED(false),
+        /**
+         * 库存偏差，订单仍在变化或者积压不为0，暂不修复
+         */
+        DRIFT(true),
+        /**
+         * Redis中下单成功，订单一直没有落库
+         */
+        LOST(true),
+        /**
+         * 订单数大于下单用户数，存在重复订单
+         */
+        DUPLICATE(true);
+
+        private final boolean flagged;
+
+        Status(boolean flagged) {
+            this.flagged = flagged;
+        }
+
+        public boolean isFlagged() {
+            return flagged;
+        }
+    }
+
+    /**
+     * 一张秒杀券的对账结果
+     */
+    @Getter
+    public static class Report {
+        private final long redisStock;
+        private final long buyers;
+        private final long dbStock;
+        private final long orders;
+        /**
+         * 还没有落库的订单数
+         */
+        private final long lag;
+        /**
+         * Redis总数 - 数据库总数
+         */
+        private final long drift;
+        private final long repairedBuyers;
+        private final Status status;
+        private final long time;
+
+        private Report(long redisStock, long buyers, long dbStock, long orders, long lag, long drift,
+                       long repairedBuyers, Status status, long time) {
+            this.redisStock = redisStock;
+            this.buyers = buyers;
+            this.dbStock = dbStock;
+            this.orders = orders;
+            this.lag = lag;
+            this.drift = drift;
+            this.repairedBuyers = repairedBuyers;
+            this.status = status;
+            this.time = time;
+        }
+
+        @Override
+        public String toString() {
+            return "redisStock=" + redisStock + ", buyers=" + buyers + ", dbStock=" + dbStock + ", orders=" + orders
+                    + ", lag=" + lag + ", drift=" + drift + ", repairedBuyers=" + repairedBuyers + ", status=" + status;
+        }
+    }
+}
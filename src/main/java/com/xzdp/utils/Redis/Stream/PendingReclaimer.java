@@ -0,0 +1,364 @@
+package com.xzdp.utils.Redis.Stream;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static com.xzdp.utils.Constants.RedisConstants.*;
+
+/**
+ * 消息队列pending消息的认领
+ *
+ *  消费者只处理自己的pendinglist，结点宕机或改名后，它的pending消息永远不会被处理
+ *  由消费者所在的服务定时调用 reclaim：
+ *  1. XPENDING 扫描整个消费者组的pending消息
+ *  2. 空闲时间超过阈值的消息，XCLAIM 认领给当前结点的消费者并处理；XCLAIM 带最小空闲时间，多个结点同时认领时只有一个成功
+ *  3. 投递次数超过上限的消息，连同失败原因转移到死信队列，并从pendinglist中确认
+ *  4. 裁剪消息队列：已经确认、且已经投递过的消息用 MINID 删除；死信队列用 MAXLEN 限制长度
+ *  5. 不再使用的消息队列，所有消息都已投递并确认后由 deleteIfDrained 删除
+ *
+ *  不使用Spring容器管理，由消费者所在的服务创建，消费者不启用时也不会认领
+ */
+@Slf4j
+public class PendingReclaimer {
+
+    /**
+     * 每次扫描的pending消息数
+     */
+    private static final int SCAN_COUNT = 100;
+
+    /**
+     * 最多记录的失败原因个数
+     */
+    private static final int MAX_FAILURES = 10000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final String stream;
+
+    private final String group;
+
+    /**
+     * 认领消息的消费者
+     */
+    private final String consumerName;
+
+    /**
+     * 处理一批消息，处理成功后由认领者确认；抛出异常表示处理失败
+     */
+    private final Consumer<List<MapRecord<String, Object, Object>>> handler;
+
+    /**
+     * false 表示handler只负责转交(例如交给分区线程)，由处理消息的线程确认，认领者不确认
+     */
+    private final boolean ackOnReturn;
+
+    /**
+     * 本结点记录的失败原因，消息id -> 原因
+     */
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder trimmed = new LongAdder();
+
+    /**
+     * Redis 6.2 以下不支持 MINID，返回语法错误后不再裁剪，只提示一次；其他异常下次继续裁剪
+     */
+    private volatile boolean minIdSupported = true;
+
+    public PendingReclaimer(StringRedisTemplate stringRedisTemplate, String stream, String group, String consumerName,
+                            Consumer<List<MapRecord<String, Object, Object>>> handler) {
+        this(stringRedisTemplate, stream, group, consumerName, handler, true);
+    }
+
+    public PendingReclaimer(StringRedisTemplate stringRedisTemplate, String stream, String group, String consumerName,
+                            Consumer<List<MapRecord<String, Object, Object>>> handler, boolean ackOnReturn) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.stream = stream;
+        this.group = group;
+        this.consumerName = consumerName;
+        this.handler = handler;
+        this.ackOnReturn = ackOnReturn;
+    }
+
+    /**
+     * 记录消息处理失败的原因，转移到死信队列时一起保存
+     * @param id 消息id
+     * @param e 异常
+     */
+    public void recordFailure(RecordId id, Throwable e) {
+        if (failures.size() < MAX_FAILURES || failures.containsKey(id.getValue())) {
+            failures.put(id.getValue(), e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 消息已经由处理线程确认，清除失败原因
+     * @param ids 消息id
+     */
+    public void acknowledged(RecordId... ids) {
+        for (RecordId id : ids) {
+            failures.remove(id.getValue());
+        }
+    }
+
+    /**
+     * 认领、转移死信、裁剪，异常只打印日志
+     */
+    public void reclaim() {
+        try {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(stream, group);
+            if (summary != null && summary.getTotalPendingMessages() > 0) {
+                reclaimPending();
+            }
+            trim(summary);
+        } catch (Exception e) {
+            log.error("认领pending消息失败！", e);
+        }
+    }
+
+    /**
+     * 扫描pendinglist，按空闲时间和投递次数处理
+     */
+    private void reclaimPending() {
+        Duration minIdle = Duration.ofMillis(STREAM_RECLAIM_IDLE);
+        Range<String> range = Range.unbounded();
+        while (true) {
+            //1. XPENDING stream.orders g1 start + count
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(stream, group, range, SCAN_COUNT);
+            if (pending == null || pending.isEmpty()) {
+                return;
+            }
+            List<RecordId> claim = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                    continue;
+                }
+                //2. 投递次数超过上限，转移到死信队列
+                if (message.getTotalDeliveryCount() >= STREAM_MAX_DELIVERIES) {
+                    deadLetter(message);
+                } else {
+                    claim.add(message.getId());
+                }
+            }
+            //3. 认领并处理
+            if (!claim.isEmpty()) {
+                claimAndHandle(claim, minIdle);
+            }
+            if (pending.size() < SCAN_COUNT) {
+                return;
+            }
+            // 下一页从最后一条的下一个id开始，低版本Redis不支持开区间
+            RecordId last = pending.get(pending.size() - 1).getId();
+            String next = RecordId.of(last.getTimestamp(), last.getSequence() + 1).getValue();
+            range = Range.rightUnbounded(Range.Bound.inclusive(next));
+        }
+    }
+
+    /**
+     * XCLAIM 认领消息并处理；整批失败时逐条处理，失败的消息留在pendinglist中，投递次数加1
+     */
+    private void claimAndHandle(List<RecordId> ids, Duration minIdle) {
+        List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(bytes(stream), group, consumerName, minIdle, ids.toArray(new RecordId[0])));
+        if (records == null || records.isEmpty()) {
+            // 已经被其他结点认领
+            return;
+        }
+        claimed.add(records.size());
+        List<MapRecord<String, Object, Object>> list = new ArrayList<>(records.size());
+        for (ByteRecord record : records) {
+            list.add(toMapRecord(record));
+        }
+        log.info("{} 认领了 {} 条pending消息", consumerName, list.size());
+        if (!ackOnReturn) {
+            // 转交失败的消息留在pendinglist中，下次再认领
+            handler.accept(list);
+            return;
+        }
+        try {
+            handle(list);
+        } catch (Exception e) {
+            for (MapRecord<String, Object, Object> record : list) {
+                try {
+                    handle(Collections.singletonList(record));
+                } catch (Exception ex) {
+                    recordFailure(record.getId(), ex);
+                    log.error("认领的消息处理失败：{}", record.getId(), ex);
+                }
+            }
+        }
+    }
+
+    private void handle(List<MapRecord<String, Object, Object>> list) {
+        handler.accept(list);
+        RecordId[] ids = list.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(stream, group, ids);
+        acknowledged(ids);
+    }
+
+    /**
+     * 转移到死信队列：原消息内容 + 原消息id + 消费者 + 投递次数 + 失败原因，然后确认原消息
+     */
+    private void deadLetter(PendingMessage message) {
+        String id = message.getIdAsString();
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(stream, Range.closed(id, id));
+        Map<Object, Object> body = new LinkedHashMap<>();
+        if (records != null && !records.isEmpty()) {
+            body.putAll(records.get(0).getValue());
+        }
+        String reason = failures.remove(id);
+        body.put("originId", id);
+        body.put("consumer", message.getConsumerName());
+        body.put("deliveries", String.valueOf(message.getTotalDeliveryCount()));
+        body.put("reason", reason != null ? reason : "超过最大投递次数，失败原因记录在其他结点的日志中");
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(STREAM_DLQ).ofMap(body));
+        stringRedisTemplate.opsForStream().acknowledge(stream, group, message.getId());
+        deadLettered.increment();
+        log.warn("消息转移到死信队列：{}，投递次数：{}，原因：{}", id, message.getTotalDeliveryCount(), body.get("reason"));
+    }
+
+    /**
+     * 裁剪消息队列
+     *  可以删除的消息：id 小于最早的pending消息，并且小于消费者组最后投递的消息(还没投递的不能删)
+     *  XTRIM stream.orders MINID ~ id，近似裁剪，按整个宏结点删除，开销小
+     */
+    private void trim(PendingMessagesSummary summary) {
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+        String minId = null;
+        for (int i = 0; i < groups.size(); i++) {
+            minId = min(minId, groups.get(i).lastDeliveredId());
+        }
+        if (summary != null && summary.getTotalPendingMessages() > 0) {
+            minId = min(minId, summary.minMessageId());
+        }
+        if (minId != null && minIdSupported) {
+            String id = minId;
+            try {
+                Long n = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                        (Long) connection.execute("XTRIM", bytes(stream), bytes("MINID"), bytes("~"), bytes(id)));
+                if (n != null) {
+                    trimmed.add(n);
+                }
+            } catch (Exception e) {
+                if (isSyntaxError(e)) {
+                    minIdSupported = false;
+                    log.warn("Redis不支持 XTRIM MINID，不再裁剪 {}：{}", stream, e.getMessage());
+                } else {
+                    log.warn("裁剪消息队列失败，下次重试 {}：{}", stream, e.getMessage());
+                }
+            }
+        }
+        stringRedisTemplate.opsForStream().trim(STREAM_DLQ, STREAM_DLQ_MAX_LEN, true);
+    }
+
+    /**
+     * Redis返回的语法错误：ERR syntax error / unknown argument 等，超时、连接断开等不算
+     */
+    private static boolean isSyntaxError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String message = String.valueOf(t.getMessage()).toLowerCase();
+            if (message.contains("err") && (message.contains("syntax") || message.contains("unknown"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 删除不再使用的消息队列：消费者组已经投递了所有消息，并且没有pending消息
+     *  还有没投递或没确认的消息时保留，下次再检查
+     * @return 消息队列已经不存在
+     */
+    public boolean deleteIfDrained() {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(stream))) {
+            return true;
+        }
+        StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(stream);
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+        for (int i = 0; i < groups.size(); i++) {
+            StreamInfo.XInfoGroup g = groups.get(i);
+            if (!group.equals(g.groupName())) {
+                continue;
+            }
+            String last = info.lastGeneratedId();
+            if (g.pendingCount() > 0 || !last.equals(min(last, g.lastDeliveredId()))) {
+                return false;
+            }
+            stringRedisTemplate.delete(stream);
+            log.info("删除不再使用的消息队列：{}", stream);
+            return true;
+        }
+        // 消费者组还没有创建，消息没有被处理过
+        log.warn("消息队列 {} 没有消费者组 {}，不删除", stream, group);
+        return false;
+    }
+
+    /**
+     * 比较两个消息id，格式为 毫秒时间戳-序号
+     */
+    private static String min(String a, String b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        RecordId x = RecordId.of(a);
+        RecordId y = RecordId.of(b);
+        int c = Long.compare(x.getTimestamp(), y.getTimestamp());
+        if (c == 0) {
+            c = Long.compare(x.getSequence(), y.getSequence());
+        }
+        return c <= 0 ? a : b;
+    }
+
+    private MapRecord<String, Object, Object> toMapRecord(ByteRecord record) {
+        RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+        Map<Object, Object> value = new HashMap<>();
+        record.getValue().forEach((k, v) -> value.put(serializer.deserialize(k), serializer.deserialize(v)));
+        return StreamRecords.newRecord().in(stream).withId(record.getId()).ofMap(value);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 运行指标
+     * @return 认领、死信、裁剪的消息数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("claimed", claimed.sum());
+        res.put("deadLettered", deadLettered.sum());
+        res.put("trimmed", trimmed.sum());
+        res.put("failures", failures.size());
+        return res;
+    }
+}
@@ -0,0 +1,20 @@
+-- 获取互斥锁，并发放一个单调递增的 fencing token
+-- 锁的值就是token，释放锁时只有token一致才删除
+
+-- 1.参数列表
+-- 1.1.锁的key
+local key = KEYS[1]
+-- 1.2.token计数器，与锁在同一个slot
+local counterKey = KEYS[2]
+-- 1.3.锁的过期时间，毫秒
+local lease = ARGV[1]
+
+-- 2.脚本业务
+-- 2.1.锁被占用，获取失败返回0
+if (redis.call('exists', key) == 1) then
+    return 0
+end
+-- 2.2.计数器加1作为本次的token，计数器不过期，保证token一直递增
+local token = redis.call('incr', counterKey)
+redis.call('set', key, token, 'PX', lease)
+return token
@@ -0,0 +1,30 @@
+-- 带 fencing token 的缓存写入
+-- 缓存旁边记录最后一次写入的token，token更小的写入来自已经过期的锁持有者，直接拒绝
+
+-- 1.参数列表
+-- 1.1.缓存的key
+local key = KEYS[1]
+-- 1.2.记录token的key，与缓存在同一个slot
+local fenceKey = KEYS[2]
+-- 1.3.编码后的缓存值
+local value = ARGV[1]
+-- 1.4.本次写入的token
+local token = tonumber(ARGV[2])
+-- 1.5.过期时间，毫秒；0 表示不过期
+local ttl = tonumber(ARGV[3])
+
+-- 2.脚本业务
+-- 2.1.已经有更新的持有者写入过，拒绝
+local fence = tonumber(redis.call('get', fenceKey))
+if (fence ~= nil and fence > token) then
+    return 0
+end
+-- 2.2.写入缓存，token与缓存一起过期
+if (ttl > 0) then
+    redis.call('set', key, value, 'PX', ttl)
+    redis.call('set', fenceKey, token, 'PX', ttl)
+else
+    redis.call('set', key, value)
+    redis.call('set', fenceKey, token)
+end
+return 1
@@ -0,0 +1,25 @@
+-- 获取可重入锁
+-- 锁是一个hash：field 为持有者标识(结点标识:线程id)，value 为重入次数
+
+-- 1.参数列表
+-- 1.1.锁的key
+local key = KEYS[1]
+-- 1.2.持有者标识
+local owner = ARGV[1]
+-- 1.3.锁的过期时间，毫秒
+local lease = ARGV[2]
+
+-- 2.脚本业务
+-- 2.1.锁不存在，或者是自己持有的锁，重入次数加1，并重置过期时间
+if (redis.call('exists', key) == 0 or redis.call('hexists', key, owner) == 1) then
+    redis.call('hincrby', key, owner, 1)
+    redis.call('pexpire', key, lease)
+    -- 获取成功，返回0
+    return 0
+end
+-- 2.2.被其他持有者占用，返回锁的剩余时间，调用方据此决定等待多久
+local ttl = redis.call('pttl', key)
+if (ttl <= 0) then
+    ttl = 1
+end
+return ttl
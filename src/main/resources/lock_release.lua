@@ -0,0 +1,25 @@
+-- 释放可重入锁
+
+-- 1.参数列表
+-- 1.1.锁的key
+local key = KEYS[1]
+-- 1.2.持有者标识
+local owner = ARGV[1]
+-- 1.3.锁释放的通知频道
+local channel = ARGV[2]
+
+-- 2.脚本业务
+-- 2.1.不是自己持有的锁(已经过期或者被别人持有)，返回-1
+if (redis.call('hexists', key, owner) == 0) then
+    return -1
+end
+-- 2.2.重入次数减1，还有重入时返回剩余次数
+-- 不修改过期时间：固定过期时间的锁保持获取时的过期时间，看门狗续期的锁由看门狗续期
+local count = redis.call('hincrby', key, owner, -1)
+if (count > 0) then
+    return count
+end
+-- 2.3.完全释放，删除锁并通知等待的线程
+redis.call('del', key)
+redis.call('publish', channel, key)
+return 0
@@ -0,0 +1,9 @@
+-- 看门狗续期：锁仍然由自己持有时，重置过期时间
+
+-- KEYS[1] 锁的key，ARGV[1] 持有者标识，ARGV[2] 过期时间，毫秒
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+-- 锁已经不是自己的(过期后被别人获取)，停止续期
+return 0
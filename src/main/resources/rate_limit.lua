@@ -0,0 +1,26 @@
+-- 滑动窗口限流，zset 中保存窗口内每个请求的时间
+
+-- 1.参数列表
+-- 1.1.当前时间，毫秒
+local now = tonumber(ARGV[1])
+-- 1.2.窗口长度，毫秒
+local window = tonumber(ARGV[2])
+-- 1.3.窗口内最多的请求数
+local limit = tonumber(ARGV[3])
+-- 1.4.本次请求的唯一标识
+local member = ARGV[4]
+
+-- 2.数据key limit:路径:用户
+local key = KEYS[1]
+
+-- 3.脚本业务
+-- 3.1.删除窗口之外的请求
+redis.call('zremrangebyscore', key, 0, now - window)
+-- 3.2.窗口内的请求数达到上限，拒绝，返回0
+if (redis.call('zcard', key) >= limit) then
+    return 0
+end
+-- 3.3.记录本次请求，key在窗口结束后过期
+redis.call('zadd', key, now, member)
+redis.call('pexpire', key, window)
+return 1
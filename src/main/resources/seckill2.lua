@@ -1,31 +1,57 @@
 -- 不使用消息队列
 
 -- 1.参数列表
--- 1.1.优惠券id
-local voucherId = ARGV[1]
--- 1.2.用户id
-local userId = ARGV[2]
+-- 1.1.用户id
+local userId = ARGV[1]
+-- 1.2.用户在bitmap分片中的位置
+local offset = ARGV[2]
+-- 1.3.当前时间，毫秒，由调用方传入(脚本中不能使用 TIME 之后再写数据)
+local now = tonumber(ARGV[3])
 
 
--- 2.数据key
--- 2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
+-- 2.数据key，全部由 KEYS 传入，Redis集群才能正确路由
+-- 2.1.库存key seckill:stock:{voucherId}
+local stockKey = KEYS[1]
+-- 2.2.订单key seckill:order:{voucherId}
+local orderKey = KEYS[2]
+-- 2.3.bitmap去重时，用户所在的分片 seckill:buyer:{voucherId}:分片号
+local buyerKey = KEYS[3]
+-- 2.4.秒杀券的配置 seckill:voucher:{voucherId}
+local voucherKey = KEYS[4]
 
 -- 3.脚本业务
+-- 3.0.读取秒杀券的配置：开始、结束时间(毫秒)和去重方式 hmget voucherKey begin end dedup
+local meta = redis.call('hmget', voucherKey, 'begin', 'end', 'dedup')
+-- 没有配置时间的旧秒杀券不判断
+if (meta[1] and now < tonumber(meta[1])) then
+    -- 尚未开始，返回3
+    return 3
+end
+if (meta[2] and now > tonumber(meta[2])) then
+    -- 已经结束，返回4
+    return 4
+end
 -- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
     -- 3.2.库存不足，返回1
     return 1
 end
--- 3.2.判断用户是否下单 SISMEMBER orderKey userId
-if(redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.3.存在，说明是重复下单，返回2
-    return 2
+-- 3.2.判断用户是否下单，并保存用户
+if (meta[3] == 'bitmap') then
+    -- bitmap：setbit 返回原来的值，判断和保存只需要一次操作
+    if (redis.call('setbit', buyerKey, offset, 1) == 1) then
+        return 2
+    end
+else
+    -- set：SISMEMBER orderKey userId
+    if (redis.call('sismember', orderKey, userId) == 1) then
+        -- 3.3.存在，说明是重复下单，返回2
+        return 2
+    end
+    -- 3.4.下单（保存用户）sadd orderKey userId
+    redis.call('sadd', orderKey, userId)
 end
--- 3.4.扣库存 incrby stockKey -1
+-- 3.5.扣库存 incrby stockKey -1
 redis.call('incrby', stockKey, -1)
--- 3.5.下单（保存用户）sadd orderKey userId
-redis.call('sadd', orderKey, userId)
-return 0
\ No newline at end of file
+return 0
@@ -0,0 +1,46 @@
+-- 结点已经预领了库存，只需要判断一人一单
+
+-- 1.参数列表
+-- 1.1.用户id
+local userId = ARGV[1]
+-- 1.2.用户在bitmap分片中的位置
+local offset = ARGV[2]
+-- 1.3.当前时间，毫秒，由调用方传入(脚本中不能使用 TIME 之后再写数据)
+local now = tonumber(ARGV[3])
+
+-- 2.数据key
+-- 2.1.订单key seckill:order:{voucherId}
+local orderKey = KEYS[1]
+-- 2.2.bitmap去重时，用户所在的分片 seckill:buyer:{voucherId}:分片号
+local buyerKey = KEYS[2]
+-- 2.3.秒杀券的配置 seckill:voucher:{voucherId}
+local voucherKey = KEYS[3]
+
+-- 3.脚本业务
+-- 3.0.读取秒杀券的配置：开始、结束时间(毫秒)和去重方式 hmget voucherKey begin end dedup
+local meta = redis.call('hmget', voucherKey, 'begin', 'end', 'dedup')
+-- 没有配置时间的旧秒杀券不判断
+if (meta[1] and now < tonumber(meta[1])) then
+    -- 尚未开始，返回3
+    return 3
+end
+if (meta[2] and now > tonumber(meta[2])) then
+    -- 已经结束，返回4
+    return 4
+end
+-- 3.1.判断用户是否下单，并保存用户
+if (meta[3] == 'bitmap') then
+    -- bitmap：setbit 返回原来的值，判断和保存只需要一次操作
+    if (redis.call('setbit', buyerKey, offset, 1) == 1) then
+        return 2
+    end
+    return 0
+end
+-- set：SISMEMBER orderKey userId
+if(redis.call('sismember', orderKey, userId) == 1) then
+    -- 3.2.存在，说明是重复下单，返回2
+    return 2
+end
+-- 3.3.下单（保存用户）sadd orderKey userId
+redis.call('sadd', orderKey, userId)
+return 0
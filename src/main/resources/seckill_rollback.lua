@@ -0,0 +1,37 @@
+-- 撤销一次已经成功的秒杀：订单无法交给异步线程、同步创建也失败时调用
+-- 与 seckill2.lua / seckill_lease.lua 相反：删除下单用户，需要时把库存加回去
+
+-- 1.参数列表
+-- 1.1.用户id
+local userId = ARGV[1]
+-- 1.2.用户在bitmap分片中的位置
+local offset = ARGV[2]
+-- 1.3.是否归还Redis库存：1 归还；0 库存是结点预领的，由调用方在本地归还
+local restoreStock = ARGV[3]
+
+-- 2.数据key
+-- 2.1.库存key seckill:stock:{voucherId}
+local stockKey = KEYS[1]
+-- 2.2.订单key seckill:order:{voucherId}
+local orderKey = KEYS[2]
+-- 2.3.bitmap去重时，用户所在的分片 seckill:buyer:{voucherId}:分片号
+local buyerKey = KEYS[3]
+-- 2.4.秒杀券的配置 seckill:voucher:{voucherId}
+local voucherKey = KEYS[4]
+
+-- 3.脚本业务
+-- 3.1.删除下单用户，返回0说明用户不存在，没有可以撤销的秒杀
+local removed
+if (redis.call('hget', voucherKey, 'dedup') == 'bitmap') then
+    removed = redis.call('setbit', buyerKey, offset, 0)
+else
+    removed = redis.call('srem', orderKey, userId)
+end
+if (removed == 0) then
+    return 0
+end
+-- 3.2.归还库存 incrby stockKey 1
+if (restoreStock == '1') then
+    redis.call('incrby', stockKey, 1)
+end
+return 1
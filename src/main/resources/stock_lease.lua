@@ -0,0 +1,20 @@
+-- 从秒杀库存中预领一块库存给当前结点
+
+-- 1.参数列表
+-- 1.1.库存key seckill:stock:{voucherId}
+local stockKey = KEYS[1]
+-- 1.2.每次预领的库存数
+local chunk = tonumber(ARGV[1])
+
+-- 2.脚本业务
+-- 2.1.库存已经用完，返回0
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+-- 2.2.剩余库存不足一块时，全部领走
+if (stock < chunk) then
+    chunk = stock
+end
+redis.call('decrby', stockKey, chunk)
+return chunk
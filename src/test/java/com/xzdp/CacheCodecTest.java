@@ -0,0 +1,154 @@
+package com.xzdp;
+
+import com.xzdp.dto.RedisData;
+import com.xzdp.entity.Shop;
+import com.xzdp.utils.Redis.Cache.CachedResult;
+import com.xzdp.utils.Redis.Codec.BinaryCacheCodec;
+import com.xzdp.utils.Redis.Codec.ByteBuf;
+import com.xzdp.utils.Redis.Codec.CacheCodec;
+import com.xzdp.utils.Redis.Codec.CacheCodecs;
+import com.xzdp.utils.Redis.Codec.JsonCacheCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * json 和 二进制 缓存编解码的对比，不需要启动Spring容器
+ */
+@Slf4j
+public class CacheCodecTest {
+
+    private static final int ROUNDS = 200000;
+
+    /**
+     * 二进制格式的头部：魔数、版本、标志位、类结构hash
+     */
+    private static final int HEADER_LENGTH = 7;
+
+    private Shop shop() {
+        StringBuilder images = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            if (i > 0) {
+                images.append(',');
+            }
+            images.append("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ").append(i).append(".jpg");
+        }
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages(images.toString())
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 3, 17, 20, 10));
+    }
+
+    @Test
+    void roundTrip() {
+        Shop shop = shop();
+        CacheCodec binary = new BinaryCacheCodec();
+        assertEquals(shop, binary.decode(binary.encode(shop), Shop.class));
+
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.of(2022, 1, 1, 12, 0, 0, 123000000));
+        RedisData decoded = binary.decodeLogic(binary.encodeLogic(redisData), Shop.class);
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        assertEquals(shop, decoded.getData());
+
+        // 入口根据第一个字节识别格式，json 写入的旧数据仍然可以读取
+        CacheCodecs codecs = new CacheCodecs();
+        assertEquals(shop, codecs.decode(new JsonCacheCodec().encode(shop), Shop.class));
+        assertEquals(shop, codecs.decode(binary.encode(shop), Shop.class));
+    }
+
+    /**
+     * 压缩数据被截断或者长度损坏时抛出异常，不会一直循环或者按损坏的长度分配内存
+     */
+    @Test
+    void corrupt() {
+        CacheCodec binary = new BinaryCacheCodec();
+        byte[] bytes = binary.encode(shop());
+
+        // 截断压缩数据
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length / 2);
+        assertThrows(IllegalStateException.class, () -> binary.decode(truncated, Shop.class));
+
+        // 头部之后是解压长度，替换为负数和很大的值
+        for (long length : new long[]{-1, Integer.MAX_VALUE, Long.MAX_VALUE}) {
+            ByteBuf out = new ByteBuf(bytes.length + 16);
+            out.writeBytes(Arrays.copyOf(bytes, HEADER_LENGTH));
+            out.writeVarLong(length);
+            out.writeBytes(new byte[]{1, 2, 3});
+            byte[] corrupt = out.toBytes();
+            assertThrows(IllegalStateException.class, () -> binary.decode(corrupt, Shop.class));
+        }
+    }
+
+    /**
+     * 返回 Result 的方法只缓存 data，解码后按 dataType 转换回实体类的列表
+     */
+    @Test
+    void cachedResult() {
+        List<Shop> shops = Collections.singletonList(shop());
+        // 二进制格式不支持 Object 类型的字段，退回json，由入口识别格式
+        CacheCodecs codecs = new CacheCodecs();
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new BinaryCacheCodec()}) {
+            CachedResult decoded = codecs.decode(codec.encode(new CachedResult(shops)), CachedResult.class);
+            assertEquals(shops, decoded.resolve(Shop.class));
+
+            RedisData redisData = new RedisData();
+            redisData.setData(new CachedResult(shops));
+            redisData.setExpireTime(LocalDateTime.of(2022, 1, 1, 12, 0));
+            decoded = (CachedResult) codecs.decodeLogic(codec.encodeLogic(redisData), CachedResult.class).getData();
+            assertEquals(shops, decoded.resolve(Shop.class));
+        }
+    }
+
+    @Test
+    @Disabled("性能对比，需要时手动运行")
+    void compare() {
+        Shop shop = shop();
+        run("json", new JsonCacheCodec(), shop);
+        run("binary", new BinaryCacheCodec(), shop);
+    }
+
+    private void run(String name, CacheCodec codec, Shop shop) {
+        byte[] bytes = codec.encode(shop);
+        // 预热
+        for (int i = 0; i < ROUNDS / 10; i++) {
+            codec.decode(codec.encode(shop), Shop.class);
+        }
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            codec.encode(shop);
+        }
+        long encode = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            codec.decode(bytes, Shop.class);
+        }
+        long decode = System.nanoTime() - begin;
+
+        log.info("{} size = {} bytes, encode = {} ns/op, decode = {} ns/op",
+                name, bytes.length, encode / ROUNDS, decode / ROUNDS);
+    }
+}
@@ -0,0 +1,168 @@
+package com.xzdp;
+
+import com.xzdp.utils.Queue.OrderPartitioner;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 按用户分区处理订单 与 每个订单加分布式锁 的对比，不需要启动Spring容器
+ *  Redis和数据库用固定的耗时模拟：一次Redis往返 RTT_MICROS，一批订单的事务 TX_MICROS + 每行 ROW_MICROS
+ */
+@Slf4j
+public class OrderPartitionerTest {
+
+    private static final int ORDERS = 10000;
+    private static final int USERS = 2000;
+    private static final int WORKERS = 4;
+    private static final int BATCH = 50;
+
+    private static final long RTT_MICROS = 200;
+    private static final long TX_MICROS = 1000;
+    private static final long ROW_MICROS = 20;
+
+    /**
+     * 订单：用户id + 这个用户的第几个订单
+     */
+    private static class Order {
+        private final long userId;
+        private final int seq;
+
+        private Order(long userId, int seq) {
+            this.userId = userId;
+            this.seq = seq;
+        }
+    }
+
+    private List<Order> orders() {
+        int[] seq = new int[USERS];
+        List<Order> orders = new ArrayList<>(ORDERS);
+        for (int i = 0; i < ORDERS; i++) {
+            int user = (int) ((i * 2654435761L) % USERS);
+            orders.add(new Order(user, seq[user]++));
+        }
+        return orders;
+    }
+
+    private static void sleepMicros(long micros) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+
+    /**
+     * 同一个用户的订单由同一个线程按顺序处理，不会并发
+     */
+    @Test
+    public void testPartitionOrdering() throws Exception {
+        Map<Long, Integer> lastSeq = new ConcurrentHashMap<>();
+        Map<Long, AtomicBoolean> running = new ConcurrentHashMap<>();
+        AtomicBoolean violated = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(ORDERS);
+        OrderPartitioner<Order> partitioner = new OrderPartitioner<>("test-partition-", WORKERS, 1024, BATCH,
+                o -> o.userId, batch -> {
+            for (Order o : batch) {
+                AtomicBoolean flag = running.computeIfAbsent(o.userId, k -> new AtomicBoolean());
+                if (!flag.compareAndSet(false, true)) {
+                    violated.set(true);
+                }
+                Integer last = lastSeq.put(o.userId, o.seq);
+                if (last == null ? o.seq != 0 : o.seq != last + 1) {
+                    violated.set(true);
+                }
+                flag.set(false);
+                done.countDown();
+            }
+        });
+        try {
+            partitioner.dispatch(orders());
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertFalse(violated.get());
+            assertEquals(USERS, lastSeq.size());
+        } finally {
+            partitioner.shutdown();
+        }
+    }
+
+    /**
+     * 吞吐量：每个订单加锁(tryLock + unlock 两次Redis往返) vs 按用户分区不加锁，批量事务相同
+     */
+    @Test
+    @Disabled("性能对比，需要时手动运行")
+    public void testThroughput() throws Exception {
+        List<Order> orders = orders();
+        long locked = lockedVersion(orders);
+        long partitioned = partitionedVersion(orders);
+        log.info("{} 个订单，{} 个线程，每批 {} 个，Redis往返 {}us，事务 {}us + {}us/行",
+                ORDERS, WORKERS, BATCH, RTT_MICROS, TX_MICROS, ROW_MICROS);
+        log.info("每个订单加锁：{} ms，{} 单/秒", locked, ORDERS * 1000L / locked);
+        log.info("按用户分区：  {} ms，{} 单/秒", partitioned, ORDERS * 1000L / partitioned);
+    }
+
+    /**
+     * 多个消费者从同一个队列读取一批，每个订单先获取用户锁，处理完释放
+     */
+    private long lockedVersion(List<Order> orders) throws Exception {
+        LinkedBlockingQueue<Order> queue = new LinkedBlockingQueue<>(orders);
+        Map<Long, Object> locks = new ConcurrentHashMap<>();
+        AtomicInteger handled = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(WORKERS);
+        long start = System.nanoTime();
+        for (int i = 0; i < WORKERS; i++) {
+            pool.execute(() -> {
+                List<Order> batch = new ArrayList<>(BATCH);
+                while (queue.drainTo(batch, BATCH) > 0) {
+                    for (Order o : batch) {
+                        synchronized (locks.computeIfAbsent(o.userId, k -> new Object())) {
+                            // tryLock
+                            sleepMicros(RTT_MICROS);
+                            // unlock
+                            sleepMicros(RTT_MICROS);
+                        }
+                    }
+                    sleepMicros(TX_MICROS + ROW_MICROS * batch.size());
+                    handled.addAndGet(batch.size());
+                    batch.clear();
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+        assertEquals(ORDERS, handled.get());
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private long partitionedVersion(List<Order> orders) throws Exception {
+        CountDownLatch done = new CountDownLatch(orders.size());
+        OrderPartitioner<Order> partitioner = new OrderPartitioner<>("bench-partition-", WORKERS, ORDERS, BATCH,
+                o -> o.userId, batch -> {
+            sleepMicros(TX_MICROS + ROW_MICROS * batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                done.countDown();
+            }
+        });
+        try {
+            long start = System.nanoTime();
+            partitioner.dispatch(orders);
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            partitioner.shutdown();
+        }
+    }
+}
@@ -5,24 +5,31 @@ import com.xzdp.entity.Shop;
 import com.xzdp.entity.User;
 import com.xzdp.mapper.UserMapper;
 import com.xzdp.service.impl.ShopServiceImpl;
+import com.xzdp.utils.Redis.CacheClient;
+import com.xzdp.utils.Redis.Lock.RedisLocks;
+import com.xzdp.utils.Redis.Lock.ReentrantRedisLock;
 import com.xzdp.utils.Redis.RedisIdWorker;
 import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.xzdp.utils.Constants.RedisConstants.LOCK_SHOP_TTL;
@@ -218,4 +225,104 @@ class XzDianPingApplicationTests {
     }
 
 
+    /**
+     * 秒杀一人一单的两种去重方式：set 和 bitmap
+     * 写入100万个连续的用户id，比较内存占用和 判断+保存 的耗时
+     */
+    @Test
+    void testBuyerDedup() {
+        int users = 1000000;
+        String setKey = "test:dedup:set";
+        String bitmapKey = "test:dedup:bitmap";
+        stringRedisTemplate.delete(Arrays.asList(setKey, bitmapKey));
+
+        //1. set：SISMEMBER + SADD
+        long start = System.currentTimeMillis();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long userId = 1; userId <= users; userId++) {
+                byte[] member = String.valueOf(userId).getBytes();
+                connection.sIsMember(setKey.getBytes(), member);
+                connection.sAdd(setKey.getBytes(), member);
+            }
+            return null;
+        });
+        long setMillis = System.currentTimeMillis() - start;
+
+        //2. bitmap：SETBIT 返回原来的值，一次操作
+        start = System.currentTimeMillis();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long userId = 1; userId <= users; userId++) {
+                connection.setBit(bitmapKey.getBytes(), userId, true);
+            }
+            return null;
+        });
+        long bitmapMillis = System.currentTimeMillis() - start;
+
+        //3. 内存占用 MEMORY USAGE key
+        Object setBytes = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.execute("MEMORY", "USAGE".getBytes(), setKey.getBytes()));
+        Object bitmapBytes = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.execute("MEMORY", "USAGE".getBytes(), bitmapKey.getBytes()));
+        log.info("set：{} 字节，{} ms；bitmap：{} 字节，{} ms", setBytes, setMillis, bitmapBytes, bitmapMillis);
+        stringRedisTemplate.delete(Arrays.asList(setKey, bitmapKey));
+    }
+
+
+
+    @Resource
+    private RedisLocks redisLocks;
+
+    /**
+     * 可重入锁：同一个线程可以重入；其他线程通过 lock(wait) 等待释放的通知
+     */
+    @Test
+    void testReentrantLock() throws InterruptedException {
+        ReentrantRedisLock lock = redisLocks.getLock("test:lock:reentrant");
+        Assertions.assertTrue(lock.tryLock());
+        // 重入
+        Assertions.assertTrue(lock.tryLock());
+
+        CountDownLatch locked = new CountDownLatch(1);
+        es.submit(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                ReentrantRedisLock other = redisLocks.getLock("test:lock:reentrant");
+                if (other.lock(5, TimeUnit.SECONDS)) {
+                    log.info("等待 {} ms 后获取锁", System.currentTimeMillis() - start);
+                    other.unlock();
+                    locked.countDown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread.sleep(200);
+        lock.unlock();
+        // 还有一次重入，其他线程仍然拿不到
+        Thread.sleep(200);
+        Assertions.assertEquals(1, locked.getCount());
+        lock.unlock();
+        Assertions.assertTrue(locked.await(5, TimeUnit.SECONDS));
+        log.info("锁的指标：{}", redisLocks.stats());
+    }
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * fencing token：锁过期后新持有者先写入，旧持有者带着更小的token再写入时被拒绝
+     */
+    @Test
+    void testFencedWrite() {
+        String key = "test:cache:fenced";
+        cacheClient.delete(key);
+        long rejected = (Long) cacheClient.rebuildStats().get("fenceRejected");
+        // 新持有者
+        Assertions.assertTrue(cacheClient.set(key, "new", 1L, TimeUnit.MINUTES, 2L));
+        // 停顿结束的旧持有者
+        Assertions.assertFalse(cacheClient.set(key, "old", 1L, TimeUnit.MINUTES, 1L));
+        Assertions.assertFalse(cacheClient.setLogic(key, "old", 1L, TimeUnit.MINUTES, 1L));
+        Assertions.assertEquals(rejected + 2, cacheClient.rebuildStats().get("fenceRejected"));
+    }
+
 }